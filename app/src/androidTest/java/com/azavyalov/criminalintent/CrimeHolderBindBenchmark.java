@@ -0,0 +1,144 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Debug;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import androidx.fragment.app.FragmentActivity;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.azavyalov.criminalintent.photo.PhotoCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Cost of CrimeHolder.bind on the main thread with real views, thumbnails
+ * already in the memory cache: time and Java allocations per bind. Results go
+ * to logcat under the "BindBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CrimeHolderBindBenchmark {
+
+    private static final String TAG = "BindBenchmark";
+    private static final int ROWS = 16;
+    private static final int BINDS = 10000;
+
+    private Context mContext;
+    private File mThumbnailFile;
+    private int mThumbnailSize;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mThumbnailSize = mContext.getResources().getDimensionPixelSize(R.dimen.list_thumbnail_size);
+        mThumbnailFile = new File(mContext.getCacheDir(), "bind-benchmark.jpg");
+        Bitmap thumbnail = Bitmap.createBitmap(mThumbnailSize, mThumbnailSize,
+                Bitmap.Config.RGB_565);
+        thumbnail.eraseColor(Color.GRAY);
+        FileOutputStream out = new FileOutputStream(mThumbnailFile);
+        try {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+        }
+        thumbnail.recycle();
+        // Off the main thread, like PhotoLoader; later binds find it in memory
+        assertNotNull(PhotoCache.getInstance(mContext)
+                .get(mThumbnailFile, mThumbnailSize, mThumbnailSize));
+    }
+
+    @After
+    public void tearDown() {
+        PhotoCache.getInstance(mContext).invalidate(mThumbnailFile);
+        mThumbnailFile.delete();
+    }
+
+    @Test
+    public void bindWithCachedThumbnails() {
+        final List<CrimeRow> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Crime crime = new Crime();
+            crime.setTitle("Crime #" + i);
+            crime.setSolved(i % 2 == 0);
+            rows.add(new CrimeRow(crime, "Mon, Oct " + (i + 1) + ", 2026",
+                    i % 4 == 0 ? null : mThumbnailFile));
+        }
+
+        ActivityScenario<CrimeListActivity> scenario = ActivityScenario.launch(CrimeListActivity.class);
+        try {
+            scenario.onActivity(new ActivityScenario.ActivityAction<CrimeListActivity>() {
+                @Override
+                public void perform(CrimeListActivity activity) {
+                    CrimeListFragment.CrimeHolder holder = createHolder(activity);
+                    measurePhotoCacheLookup();
+                    measureBinds(holder, rows);
+                }
+            });
+        } finally {
+            scenario.close();
+        }
+    }
+
+    private static CrimeListFragment.CrimeHolder createHolder(FragmentActivity activity) {
+        CrimeListFragment fragment = (CrimeListFragment) activity.getSupportFragmentManager()
+                .findFragmentById(R.id.fragment_container);
+        ViewGroup parent = activity.findViewById(R.id.crime_recycler_view);
+        return fragment.new CrimeHolder(LayoutInflater.from(activity), parent);
+    }
+
+    // The part of a bind this app controls: a memory hit must not allocate
+    private void measurePhotoCacheLookup() {
+        PhotoCache photoCache = PhotoCache.getInstance(mContext);
+        assertNotNull(photoCache.getFromMemory(mThumbnailFile, mThumbnailSize, mThumbnailSize));
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < BINDS; i++) {
+            photoCache.getFromMemory(mThumbnailFile, mThumbnailSize, mThumbnailSize);
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        Log.i(TAG, String.format("PhotoCache.getFromMemory: %d allocations over %d lookups",
+                allocations, BINDS));
+        assertEquals(0, allocations);
+    }
+
+    // Includes whatever TextView and ImageView allocate, which is outside our control
+    private static void measureBinds(CrimeListFragment.CrimeHolder holder, List<CrimeRow> rows) {
+        // Warm up, so every row's thumbnail request is resolved and the code is compiled
+        for (int i = 0; i < BINDS; i++) {
+            holder.bind(rows.get(i % rows.size()));
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            holder.bind(rows.get(i % rows.size()));
+        }
+        long nanos = System.nanoTime() - start;
+        int allocations = Debug.getThreadAllocCount();
+        int allocatedBytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+        Log.i(TAG, String.format("CrimeHolder.bind: %.2f us, %.2f allocations, %d bytes per bind",
+                nanos / 1000.0 / BINDS, (double) allocations / BINDS, allocatedBytes / BINDS));
+    }
+}
@@ -0,0 +1,120 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.azavyalov.criminalintent.database.CrimeBaseHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Write throughput of the per-row CrimeLab methods against the batch ones.
+ * Uses a file database so every implicit transaction pays for its own sync.
+ * Results go to logcat under the "BatchBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CrimeLabBatchBenchmark {
+
+    private static final String TAG = "BatchBenchmark";
+    private static final String TEST_DATABASE = "crimeBase-batch-benchmark.db";
+    private static final int ROWS = 2000;
+
+    private Context mContext;
+    private CrimeBaseHelper mHelper;
+    private CrimeLab mCrimeLab;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mHelper = new CrimeBaseHelper(mContext, TEST_DATABASE);
+        mCrimeLab = new CrimeLab(mContext, mHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void perRowAgainstBatch() {
+        List<Crime> perRow = createCrimes();
+        long start = System.nanoTime();
+        for (Crime crime : perRow) {
+            mCrimeLab.addCrime(crime);
+        }
+        long perRowInsert = System.nanoTime() - start;
+
+        List<Crime> batch = createCrimes();
+        start = System.nanoTime();
+        mCrimeLab.addCrimes(batch);
+        long batchInsert = System.nanoTime() - start;
+        assertEquals(2 * ROWS, mCrimeLab.getCrimeCount());
+
+        start = System.nanoTime();
+        for (Crime crime : perRow) {
+            crime.setSolved(true);
+            mCrimeLab.updateCrime(crime);
+        }
+        long perRowUpdate = System.nanoTime() - start;
+
+        for (Crime crime : batch) {
+            crime.setSolved(true);
+        }
+        start = System.nanoTime();
+        mCrimeLab.updateCrimes(batch);
+        long batchUpdate = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Crime crime : perRow) {
+            mCrimeLab.deleteCrime(crime);
+        }
+        long perRowDelete = System.nanoTime() - start;
+
+        List<UUID> ids = new ArrayList<>();
+        for (Crime crime : batch) {
+            ids.add(crime.getId());
+        }
+        start = System.nanoTime();
+        mCrimeLab.deleteCrimes(ids);
+        long batchDelete = System.nanoTime() - start;
+        assertEquals(0, mCrimeLab.getCrimeCount());
+
+        log("insert", perRowInsert, batchInsert);
+        log("update", perRowUpdate, batchUpdate);
+        log("delete", perRowDelete, batchDelete);
+    }
+
+    private static List<Crime> createCrimes() {
+        List<Crime> crimes = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Crime crime = new Crime();
+            crime.setTitle("Crime #" + i);
+            crime.setSuspect(i % 3 == 0 ? null : "Suspect #" + i);
+            crimes.add(crime);
+        }
+        return crimes;
+    }
+
+    private static void log(String operation, long perRowNanos, long batchNanos) {
+        Log.i(TAG, operation + ": per-row " + rowsPerSecond(perRowNanos) + " rows/s, batch "
+                + rowsPerSecond(batchNanos) + " rows/s");
+    }
+
+    private static long rowsPerSecond(long nanos) {
+        return ROWS * 1000000000L / Math.max(1, nanos);
+    }
+}
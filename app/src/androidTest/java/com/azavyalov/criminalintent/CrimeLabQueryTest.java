@@ -0,0 +1,162 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.azavyalov.criminalintent.database.CrimeBaseHelper;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CrimeLabQueryTest {
+
+    private static final String[] TITLES = {null, "apple", "Apple", "banana", "Cherry", "cherry"};
+
+    private CrimeBaseHelper mHelper;
+    private CrimeLab mCrimeLab;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mHelper = new CrimeBaseHelper(context, null);
+        mCrimeLab = new CrimeLab(context, mHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void pagesWalkEveryQueryInOrder() {
+        // Few distinct titles and dates, so ties on the sort column are common
+        Random random = new Random(42);
+        List<Crime> crimes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Crime crime = new Crime();
+            crime.setTitle(TITLES[random.nextInt(TITLES.length)]);
+            crime.setDate(new Date(random.nextInt(20) * 1000L));
+            crime.setSolved(random.nextBoolean());
+            crime.setSuspect(random.nextBoolean() ? "Suspect" : null);
+            crime.setHasPhoto(random.nextInt(4) == 0);
+            crimes.add(crime);
+        }
+        mCrimeLab.addCrimes(crimes);
+
+        for (CrimeQuery query : getQueryShapes()) {
+            int count = mCrimeLab.getCrimeCount(query);
+            List<Crime> forward = new ArrayList<>();
+            CrimePage page = mCrimeLab.getCrimesPageAfter(query, null, 7);
+            while (!page.isEmpty()) {
+                forward.addAll(page.getCrimes());
+                page = mCrimeLab.getCrimesPageAfter(query, page.getLastKey(), 7);
+            }
+            assertEquals(count, forward.size());
+            for (Crime crime : forward) {
+                assertTrue(query.matches(crime));
+            }
+
+            // Walking back from the end must give the same rows in reverse
+            List<Crime> backward = new ArrayList<>();
+            page = mCrimeLab.getCrimesPageAt(query, Math.max(0, count - 7), 7);
+            while (!page.isEmpty()) {
+                backward.addAll(0, page.getCrimes());
+                page = mCrimeLab.getCrimesPageBefore(query, page.getFirstKey(), 7);
+            }
+            assertEquals(ids(forward), ids(backward));
+        }
+    }
+
+    @Test
+    public void everyQueryShapeUsesAnIndex() {
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        CrimePage.Key dateKey = new CrimePage.Key(1000L, 1);
+        CrimePage.Key titleKey = new CrimePage.Key("apple", 1);
+        for (CrimeQuery query : getQueryShapes()) {
+            CrimePage.Key key = query.getSort() == CrimeQuery.Sort.TITLE ? titleKey : dateKey;
+            for (boolean reversed : new boolean[]{false, true}) {
+                String where = query.getWhere();
+                String keyWhere = query.getKeyWhere(key, reversed);
+                where = where == null ? keyWhere : where + " AND " + keyWhere;
+                String sql = SQLiteQueryBuilder.buildQueryString(false, CrimeTable.NAME,
+                        CrimeTable.Projections.ALL, where, null, null,
+                        query.getOrderBy(reversed), "50");
+                int args = countArgs(sql);
+                assertUsesIndex(db, sql, new String[args]);
+            }
+        }
+    }
+
+    private static List<CrimeQuery> getQueryShapes() {
+        List<CrimeQuery> queries = new ArrayList<>();
+        for (CrimeQuery.Sort sort : CrimeQuery.Sort.values()) {
+            for (boolean ascending : new boolean[]{true, false}) {
+                CrimeQuery base = new CrimeQuery.Builder().setSort(sort, ascending).build();
+                queries.add(base);
+                queries.add(base.buildUpon().setSolved(true).build());
+                queries.add(base.buildUpon().setSolved(false).build());
+                queries.add(base.buildUpon().setHasPhoto(true).build());
+                queries.add(base.buildUpon().setHasSuspect(true).build());
+                queries.add(base.buildUpon().setDateRange(5000L, 15000L).build());
+                queries.add(base.buildUpon().setSolved(false).setHasSuspect(true)
+                        .setDateRange(5000L, null).build());
+            }
+        }
+        return queries;
+    }
+
+    private static void assertUsesIndex(SQLiteDatabase db, String sql, String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            args[i] = "0";
+        }
+        Cursor cursor = db.rawQuery("explain query plan " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                String step = cursor.getString(detail);
+                // "SCAN TABLE crimes" on older SQLite, "SCAN crimes" on newer
+                boolean fullScan = step.matches("SCAN (TABLE )?" + CrimeTable.NAME + "\\b.*")
+                        && !step.contains("USING");
+                assertFalse(sql + " -> " + step, fullScan);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int countArgs(String sql) {
+        int count = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> ids(List<Crime> crimes) {
+        List<String> ids = new ArrayList<>(crimes.size());
+        for (Crime crime : crimes) {
+            ids.add(crime.getId().toString());
+        }
+        return ids;
+    }
+}
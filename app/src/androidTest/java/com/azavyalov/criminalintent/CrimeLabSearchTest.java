@@ -0,0 +1,93 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.azavyalov.criminalintent.database.CrimeBaseHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CrimeLabSearchTest {
+
+    private CrimeBaseHelper mHelper;
+    private CrimeLab mCrimeLab;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mHelper = new CrimeBaseHelper(context, null);
+        mCrimeLab = new CrimeLab(context, mHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void indexFollowsInsertUpdateAndDelete() {
+        Crime crime = createCrime("Stolen bicycle", null, 1000);
+        mCrimeLab.addCrime(crime);
+        assertEquals(1, mCrimeLab.search("bicy", 0, 10).size());
+
+        crime.setTitle("Stolen scooter");
+        mCrimeLab.updateCrime(crime);
+        assertTrue(mCrimeLab.search("bicycle", 0, 10).isEmpty());
+        assertEquals(1, mCrimeLab.search("scoot", 0, 10).size());
+
+        mCrimeLab.deleteCrime(crime);
+        assertTrue(mCrimeLab.search("scooter", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void titleMatchesRankFirst() {
+        Crime bySuspect = createCrime("Broken window", "Neighbour Smith", 3000);
+        Crime byTitle = createCrime("Smith's car", null, 1000);
+        mCrimeLab.addCrimes(Arrays.asList(bySuspect, byTitle));
+
+        List<Crime> results = mCrimeLab.search("smith", 0, 10);
+        assertEquals(2, results.size());
+        assertEquals(byTitle.getId(), results.get(0).getId());
+        assertEquals(bySuspect.getId(), results.get(1).getId());
+    }
+
+    @Test
+    public void allWordsMustMatchAndSyntaxIsIgnored() {
+        mCrimeLab.addCrimes(Collections.singletonList(createCrime("Stolen red car", null, 1000)));
+
+        assertEquals(1, mCrimeLab.search("  RED* \"car", 0, 10).size());
+        assertTrue(mCrimeLab.search("red bike", 0, 10).isEmpty());
+        assertTrue(mCrimeLab.search("*-\"", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void resultsArePaged() {
+        for (int i = 0; i < 25; i++) {
+            mCrimeLab.addCrime(createCrime("Theft #" + i, null, i));
+        }
+        assertEquals(10, mCrimeLab.search("theft", 0, 10).size());
+        assertEquals(5, mCrimeLab.search("theft", 20, 10).size());
+    }
+
+    private static Crime createCrime(String title, String suspect, long date) {
+        Crime crime = new Crime();
+        crime.setTitle(title);
+        crime.setSuspect(suspect);
+        crime.setDate(new Date(date));
+        return crime;
+    }
+}
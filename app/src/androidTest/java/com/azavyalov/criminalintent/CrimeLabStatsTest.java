@@ -0,0 +1,86 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.azavyalov.criminalintent.database.CrimeBaseHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4.class)
+public class CrimeLabStatsTest {
+
+    private CrimeBaseHelper mHelper;
+    private CrimeLab mCrimeLab;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mHelper = new CrimeBaseHelper(context, null);
+        mCrimeLab = new CrimeLab(context, mHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void statsAreCachedUntilNextWrite() {
+        mCrimeLab.addCrime(createCrime(2020, Calendar.SEPTEMBER, 1, true));
+        mCrimeLab.addCrime(createCrime(2020, Calendar.SEPTEMBER, 1, false));
+
+        CrimeStats stats = mCrimeLab.getStats();
+        assertEquals(2, stats.getTotal());
+        assertEquals(1, stats.getSolved());
+        assertEquals(1, stats.getUnsolved());
+        assertSame(stats, mCrimeLab.getStats());
+
+        mCrimeLab.addCrime(createCrime(2020, Calendar.OCTOBER, 5, true));
+        stats = mCrimeLab.getStats();
+        assertEquals(3, stats.getTotal());
+        assertEquals(2, stats.getSolved());
+    }
+
+    @Test
+    public void countsAreGroupedByLocalDayAndMonth() {
+        mCrimeLab.addCrime(createCrime(2020, Calendar.SEPTEMBER, 1, true));
+        mCrimeLab.addCrime(createCrime(2020, Calendar.SEPTEMBER, 1, false));
+        mCrimeLab.addCrime(createCrime(2020, Calendar.SEPTEMBER, 20, false));
+        mCrimeLab.addCrime(createCrime(2020, Calendar.OCTOBER, 5, true));
+
+        List<CrimeStats.Bucket> days = mCrimeLab.getCountsBy(CrimeStats.Period.DAY);
+        assertEquals(3, days.size());
+        assertEquals("2020-09-01", days.get(0).getLabel());
+        assertEquals(2, days.get(0).getTotal());
+        assertEquals(1, days.get(0).getSolved());
+
+        List<CrimeStats.Bucket> months = mCrimeLab.getCountsBy(CrimeStats.Period.MONTH);
+        assertEquals(2, months.size());
+        assertEquals("2020-09", months.get(0).getLabel());
+        assertEquals(3, months.get(0).getTotal());
+        assertEquals("2020-10", months.get(1).getLabel());
+        assertEquals(1, months.get(1).getTotal());
+    }
+
+    private static Crime createCrime(int year, int month, int day, boolean solved) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, 12, 0);
+        Crime crime = new Crime();
+        crime.setDate(calendar.getTime());
+        crime.setSolved(solved);
+        return crime;
+    }
+}
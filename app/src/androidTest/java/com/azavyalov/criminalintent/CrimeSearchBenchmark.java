@@ -0,0 +1,92 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.azavyalov.criminalintent.database.CrimeBaseHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Time to the first page of search results on 100k crimes, for a rare and a
+ * common prefix. Results go to logcat under the "SearchBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CrimeSearchBenchmark {
+
+    private static final String TAG = "SearchBenchmark";
+    private static final String TEST_DATABASE = "crimeBase-search-benchmark.db";
+    private static final int ROWS = 100000;
+    private static final int PAGE_SIZE = 50;
+    private static final int RUNS = 20;
+    private static final String[] WORDS = {
+            "stolen", "broken", "window", "bicycle", "wallet", "graffiti", "parking", "noise",
+            "phone", "laptop", "fence", "garden", "office", "kitchen", "printer", "coffee"
+    };
+
+    private Context mContext;
+    private CrimeBaseHelper mHelper;
+    private CrimeLab mCrimeLab;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mHelper = new CrimeBaseHelper(mContext, TEST_DATABASE);
+        mCrimeLab = new CrimeLab(mContext, mHelper);
+
+        List<Crime> crimes = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Crime crime = new Crime();
+            crime.setTitle(WORDS[i % WORDS.length] + " " + WORDS[(i / 7) % WORDS.length] + " " + i);
+            crime.setSuspect(i % 3 == 0 ? "Suspect " + WORDS[(i / 3) % WORDS.length] : null);
+            crime.setDate(new Date(i * 1000L));
+            crimes.add(crime);
+        }
+        mCrimeLab.addCrimes(crimes);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void firstPageOnLargeTable() {
+        // Only the last row has a word starting with this
+        measure("rare", "99999");
+        // A sixteenth of the table matches
+        measure("common", "wal");
+        measure("two words", "stolen phone");
+    }
+
+    private void measure(String name, String query) {
+        List<Crime> results = mCrimeLab.search(query, 0, PAGE_SIZE);
+        assertFalse(results.isEmpty());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            results = mCrimeLab.search(query, 0, PAGE_SIZE);
+        }
+        long micros = (System.nanoTime() - start) / 1000 / RUNS;
+        Log.i(TAG, String.format("%-10s \"%s\": %d results on the first page, %d us/query",
+                name, query, results.size(), micros));
+        if ("rare".equals(name)) {
+            assertEquals(1, results.size());
+        }
+    }
+}
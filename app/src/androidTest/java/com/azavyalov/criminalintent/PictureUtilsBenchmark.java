@@ -0,0 +1,113 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.azavyalov.criminalintent.photo.BitmapPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Heap cost of one decoded 12 MP photo scaled for a 1080x1920 screen: the old
+ * ARGB_8888 decode, RGB_565, exact scaling, and pooled decodes. Reports the
+ * bitmap allocation size and how much Java and native heap grew while paging
+ * through PAGES photos. Results go to logcat under the "DecodeBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PictureUtilsBenchmark {
+
+    private static final String TAG = "DecodeBenchmark";
+    private static final int PHOTO_WIDTH = 4000;
+    private static final int PHOTO_HEIGHT = 3000;
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    private static final int PAGES = 20;
+
+    private File mPhotoFile;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mPhotoFile = new File(context.getCacheDir(), "decode-benchmark.jpg");
+        Bitmap photo = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(photo);
+        Paint paint = new Paint();
+        for (int i = 0; i < 50; i++) {
+            paint.setColor(Color.rgb(i * 5, 255 - i * 5, i * 3));
+            canvas.drawCircle(i * 80, i * 60, 400, paint);
+        }
+        FileOutputStream out = new FileOutputStream(mPhotoFile);
+        try {
+            photo.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+        }
+        photo.recycle();
+        BitmapPool.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        mPhotoFile.delete();
+        BitmapPool.getInstance().clear();
+    }
+
+    @Test
+    public void heapPerDecodedPhoto() {
+        measure("ARGB_8888", Bitmap.Config.ARGB_8888, false, false);
+        measure("RGB_565", Bitmap.Config.RGB_565, false, false);
+        measure("RGB_565 exact", Bitmap.Config.RGB_565, true, false);
+        measure("RGB_565 pooled", Bitmap.Config.RGB_565, false, true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            measure("HARDWARE exact", Bitmap.Config.HARDWARE, true, false);
+        }
+    }
+
+    private void measure(String name, Bitmap.Config config, boolean exact, boolean pooled) {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long javaBefore = runtime.totalMemory() - runtime.freeMemory();
+        long nativeBefore = Debug.getNativeHeapAllocatedSize();
+        long start = System.nanoTime();
+
+        int bitmapBytes = 0;
+        for (int i = 0; i < PAGES; i++) {
+            Bitmap bitmap = PictureUtils.getScaledBitmap(mPhotoFile.getPath(),
+                    SCREEN_WIDTH, SCREEN_HEIGHT, config, exact);
+            assertNotNull(bitmap);
+            bitmapBytes = bitmap.getAllocationByteCount();
+            if (pooled) {
+                // What the page would do once the photo scrolls out of view
+                BitmapPool.getInstance().put(bitmap);
+            }
+        }
+
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long javaGrowth = runtime.totalMemory() - runtime.freeMemory() - javaBefore;
+        long nativeGrowth = Debug.getNativeHeapAllocatedSize() - nativeBefore;
+        Log.i(TAG, String.format("%-16s bitmap %6d KB, java heap +%6d KB, native heap +%6d KB, " +
+                        "%4d ms/photo", name, bitmapBytes / 1024, javaGrowth / 1024,
+                nativeGrowth / 1024, elapsedMs / PAGES));
+        assertTrue(bitmapBytes > 0);
+        BitmapPool.getInstance().clear();
+    }
+}
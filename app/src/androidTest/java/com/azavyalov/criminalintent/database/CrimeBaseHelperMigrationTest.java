@@ -0,0 +1,183 @@
+package com.azavyalov.criminalintent.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a populated version 1 database file and checks the resulting schema.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CrimeBaseHelperMigrationTest {
+
+    private static final String TEST_DATABASE = "crimeBase-migration-test.db";
+    private static final String FIRST_ID = "3f1c1a0e-6f7b-4c8e-9a55-1d2f3e4a5b6c";
+    private static final String SECOND_ID = "7a9d2b4c-1e3f-4a5b-8c6d-9e0f1a2b3c4d";
+
+    private Context mContext;
+    private File mDatabaseFile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDatabaseFile = mContext.getDatabasePath(TEST_DATABASE);
+        mContext.deleteDatabase(TEST_DATABASE);
+        mDatabaseFile.getParentFile().mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsRows() {
+        createVersion1Database();
+
+        SQLiteDatabase db = new CrimeBaseHelper(mContext, TEST_DATABASE).getWritableDatabase();
+        try {
+            assertTrue(db.getVersion() >= 3);
+            CrimeCursorWrapper cursor = new CrimeCursorWrapper(
+                    db.rawQuery("select * from crimes order by _id", null));
+            try {
+                assertEquals(2, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals(UUID.fromString(FIRST_ID), cursor.getCrimeId());
+                assertEquals("First", cursor.getCrime().getTitle());
+                assertEquals(1000L, cursor.getCrime().getDate().getTime());
+                assertFalse(cursor.getCrime().isSolved());
+                cursor.moveToNext();
+                assertEquals(UUID.fromString(SECOND_ID), cursor.getCrimeId());
+                assertEquals("Second", cursor.getCrime().getTitle());
+                assertTrue(cursor.getCrime().isSolved());
+                assertEquals("Suspect", cursor.getCrime().getSuspect());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_createsIndexes() {
+        createVersion1Database();
+
+        SQLiteDatabase db = new CrimeBaseHelper(mContext, TEST_DATABASE).getWritableDatabase();
+        try {
+            List<String> indexes = new ArrayList<>();
+            Cursor cursor = db.rawQuery("pragma index_list(crimes)", null);
+            try {
+                while (cursor.moveToNext()) {
+                    indexes.add(cursor.getString(cursor.getColumnIndex("name")));
+                }
+            } finally {
+                cursor.close();
+            }
+            assertTrue(indexes.contains(CrimeDbSchema.CrimeTable.Indexes.UUID));
+            assertTrue(indexes.contains(CrimeDbSchema.CrimeTable.Indexes.DATE));
+            assertTrue(indexes.contains(CrimeDbSchema.CrimeTable.Indexes.SOLVED));
+            assertTrue(indexes.contains(CrimeDbSchema.CrimeTable.Indexes.TITLE));
+            assertTrue(indexes.contains(CrimeDbSchema.CrimeTable.Indexes.PHOTO));
+
+            String plan = explain(db, "select * from crimes where date > 5 order by date");
+            assertTrue(plan, plan.contains(CrimeDbSchema.CrimeTable.Indexes.DATE));
+            plan = explain(db, "select * from crimes where " + CrimeDbSchema.UuidCodec.WHERE_ID
+                    .replace("?", "1"));
+            assertTrue(plan, plan.contains(CrimeDbSchema.CrimeTable.Indexes.UUID));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_indexesExistingRowsForSearch() {
+        createVersion1Database();
+
+        SQLiteDatabase db = new CrimeBaseHelper(mContext, TEST_DATABASE).getWritableDatabase();
+        try {
+            Cursor cursor = db.rawQuery("select docid from " + CrimeDbSchema.CrimeSearchTable.NAME +
+                    " where " + CrimeDbSchema.CrimeSearchTable.NAME + " match 'susp*'", null);
+            try {
+                assertEquals(1, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals(2, cursor.getLong(0));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_searchFollowsEditsAndDeletes() {
+        createVersion1Database();
+
+        SQLiteDatabase db = new CrimeBaseHelper(mContext, TEST_DATABASE).getWritableDatabase();
+        try {
+            db.execSQL("update crimes set title = 'Renamed' where _id = 1");
+            db.execSQL("delete from crimes where _id = 2");
+            assertEquals(1, countMatches(db, "renamed"));
+            assertEquals(0, countMatches(db, "first"));
+            assertEquals(0, countMatches(db, "susp*"));
+        } finally {
+            db.close();
+        }
+    }
+
+    private static int countMatches(SQLiteDatabase db, String match) {
+        Cursor cursor = db.rawQuery("select docid from " + CrimeDbSchema.CrimeSearchTable.NAME +
+                " where " + CrimeDbSchema.CrimeSearchTable.NAME + " match ?", new String[]{match});
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void createVersion1Database() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+        try {
+            db.execSQL("create table crimes( _id integer primary key autoincrement, " +
+                    "uuid, title, date, solved, suspect)");
+            db.execSQL("insert into crimes(uuid, title, date, solved, suspect) values " +
+                    "('" + FIRST_ID + "', 'First', 1000, 0, null)");
+            db.execSQL("insert into crimes(uuid, title, date, solved, suspect) values " +
+                    "('" + SECOND_ID + "', 'Second', 2000, 1, 'Suspect')");
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static String explain(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("explain query plan " + sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
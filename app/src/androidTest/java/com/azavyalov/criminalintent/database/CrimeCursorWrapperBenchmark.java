@@ -0,0 +1,158 @@
+package com.azavyalov.criminalintent.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.azavyalov.criminalintent.Crime;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Per-row cost of mapping a cursor to crimes: column lookup on every row (the
+ * old getCrime), cached column indexes, and cached indexes filling one reused Crime.
+ * Results go to logcat under the "CursorBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CrimeCursorWrapperBenchmark {
+
+    private static final String TAG = "CursorBenchmark";
+    private static final int ROWS = 10000;
+    private static final int RUNS = 5;
+
+    private CrimeBaseHelper mHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // In-memory database
+        mHelper = new CrimeBaseHelper(context, null);
+        mDatabase = mHelper.getWritableDatabase();
+
+        SQLiteStatement insert = mDatabase.compileStatement("insert into " + CrimeTable.NAME +
+                "(" + Cols.UUID_MSB + ", " + Cols.UUID_LSB + ", " + Cols.TITLE + ", " +
+                Cols.DATE + ", " + Cols.SOLVED + ", " + Cols.SUSPECT + ") values (?, ?, ?, ?, ?, ?)");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                UUID id = UUID.randomUUID();
+                insert.bindLong(1, id.getMostSignificantBits());
+                insert.bindLong(2, id.getLeastSignificantBits());
+                insert.bindString(3, "Crime #" + i);
+                insert.bindLong(4, i * 1000L);
+                insert.bindLong(5, i % 2);
+                insert.bindString(6, "Suspect #" + i);
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            insert.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void perRowCost() {
+        // Warm up the page cache and the JIT before measuring
+        measure(new LookupPerRow());
+        measure(new CachedIndexes());
+        measure(new ReusedCrime());
+
+        long lookupPerRow = best(new LookupPerRow());
+        long cachedIndexes = best(new CachedIndexes());
+        long reusedCrime = best(new ReusedCrime());
+
+        Log.i(TAG, "getColumnIndex per row: " + lookupPerRow / ROWS + " ns/row");
+        Log.i(TAG, "cached column indexes:  " + cachedIndexes / ROWS + " ns/row");
+        Log.i(TAG, "cached + reused Crime:  " + reusedCrime / ROWS + " ns/row");
+    }
+
+    private long best(Mapper mapper) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            best = Math.min(best, measure(mapper));
+        }
+        return best;
+    }
+
+    private long measure(Mapper mapper) {
+        Cursor cursor = mDatabase.query(CrimeTable.NAME, CrimeTable.Projections.ALL,
+                null, null, null, null, null);
+        try {
+            // Fill the cursor window up front so only mapping is timed
+            assertEquals(ROWS, cursor.getCount());
+            long start = System.nanoTime();
+            mapper.map(cursor);
+            return System.nanoTime() - start;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private interface Mapper {
+        void map(Cursor cursor);
+    }
+
+    // Mirrors the getCrime implementation this wrapper replaced
+    private static class LookupPerRow implements Mapper {
+        @Override
+        public void map(Cursor cursor) {
+            while (cursor.moveToNext()) {
+                long msb = cursor.getLong(cursor.getColumnIndex(Cols.UUID_MSB));
+                long lsb = cursor.getLong(cursor.getColumnIndex(Cols.UUID_LSB));
+                String title = cursor.getString(cursor.getColumnIndex(Cols.TITLE));
+                long date = cursor.getLong(cursor.getColumnIndex(Cols.DATE));
+                int isSolved = cursor.getInt(cursor.getColumnIndex(Cols.SOLVED));
+                String suspect = cursor.getString(cursor.getColumnIndex(Cols.SUSPECT));
+
+                Crime crime = new Crime(new UUID(msb, lsb));
+                crime.setTitle(title);
+                crime.setDate(new Date(date));
+                crime.setSolved(isSolved != 0);
+                crime.setSuspect(suspect);
+            }
+        }
+    }
+
+    private static class CachedIndexes implements Mapper {
+        @Override
+        public void map(Cursor cursor) {
+            CrimeCursorWrapper wrapper = new CrimeCursorWrapper(cursor);
+            while (wrapper.moveToNext()) {
+                wrapper.getCrime();
+            }
+        }
+    }
+
+    private static class ReusedCrime implements Mapper {
+        @Override
+        public void map(Cursor cursor) {
+            CrimeCursorWrapper wrapper = new CrimeCursorWrapper(cursor);
+            Crime crime = new Crime();
+            while (wrapper.moveToNext()) {
+                wrapper.fillCrime(crime);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.azavyalov.criminalintent;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.List;
+
+/**
+ * Преступления совпадают по id, а содержимое сравнивается через Crime.contentEquals.
+ */
+public class CrimeDiffCallback extends DiffUtil.Callback {
+
+    private final List<Crime> mOldCrimes;
+    private final List<Crime> mNewCrimes;
+
+    public CrimeDiffCallback(List<Crime> oldCrimes, List<Crime> newCrimes) {
+        mOldCrimes = oldCrimes;
+        mNewCrimes = newCrimes;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return mOldCrimes.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return mNewCrimes.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        return mOldCrimes.get(oldItemPosition).getId()
+                .equals(mNewCrimes.get(newItemPosition).getId());
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        return mOldCrimes.get(oldItemPosition).contentEquals(mNewCrimes.get(newItemPosition));
+    }
+}
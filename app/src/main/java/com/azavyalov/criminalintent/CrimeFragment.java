@@ -6,7 +6,6 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.ContactsContract;
@@ -35,10 +34,15 @@ import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
 
+import com.azavyalov.criminalintent.photo.PhotoLoader;
+import com.azavyalov.criminalintent.photo.PhotoVariants;
+
 import java.io.File;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import static android.widget.CompoundButton.OnCheckedChangeListener;
 
@@ -65,8 +69,21 @@ public class CrimeFragment extends Fragment {
 
     private int mPhotoWidth;
     private int mPhotoHeight;
+    private boolean mCanPickContact;
+    private boolean mCanTakePhoto;
 
     private Callbacks mCallbacks;
+    private Future<Crime> mCrimeRequest;
+
+    // Tells the host about an edit once it is in the database, not on every keystroke
+    private final CrimeWriteQueue.Listener mWriteListener = new CrimeWriteQueue.Listener() {
+        @Override
+        public void onCrimesWritten(Collection<Crime> crimes) {
+            if (mCallbacks != null && mCrime != null && crimes.contains(mCrime)) {
+                mCallbacks.onCrimeUpdated(mCrime);
+            }
+        }
+    };
 
     public interface Callbacks {
         void onCrimeUpdated(Crime crime);
@@ -81,10 +98,15 @@ public class CrimeFragment extends Fragment {
         return fragment;
     }
 
+    public UUID getCrimeId() {
+        return (UUID) getArguments().getSerializable(ARG_CRIME_ID);
+    }
+
     @Override
     public void onAttach(@NonNull Context context) {
         super.onAttach(context);
         mCallbacks = (Callbacks) context;
+        CrimeWriteQueue.getInstance(context).addListener(mWriteListener);
     }
 
     @Override
@@ -92,12 +114,36 @@ public class CrimeFragment extends Fragment {
         super.onCreate(savedInstanceState);
 
         UUID crimeId = (UUID) getArguments().getSerializable(ARG_CRIME_ID);
-        mCrime = CrimeLab.getInstance(getActivity()).getCrime(crimeId);
-        mPhotoFile = CrimeLab.getInstance(getActivity()).getPhotoFile(mCrime);
+        CrimeLab crimeLab = CrimeLab.getInstance(getActivity());
+        // A prefetched crime is bound in the first frame, without a round trip to the db thread
+        Crime cached = crimeLab.peekCrime(crimeId);
+        if (cached != null) {
+            onCrimeLoaded(cached);
+        } else {
+            mCrimeRequest = crimeLab.getCrimeAsync(crimeId, new CrimeLab.Callback<Crime>() {
+                @Override
+                public void onResult(Crime crime) {
+                    mCrimeRequest = null;
+                    onCrimeLoaded(crime);
+                }
+            });
+        }
 
         setHasOptionsMenu(true);
     }
 
+    private void onCrimeLoaded(Crime crime) {
+        if (crime == null) {
+            // Crime was deleted while the request was in flight
+            return;
+        }
+        mCrime = crime;
+        mPhotoFile = CrimeLab.getInstance(getActivity()).getPhotoFile(mCrime);
+        if (getView() != null) {
+            bindCrime();
+        }
+    }
+
     @Nullable
     @Override
     public View onCreateView(@NonNull final LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -105,30 +151,14 @@ public class CrimeFragment extends Fragment {
         View v = inflater.inflate(R.layout.fragment_crime, container, false);
 
         mTitleFiled = v.findViewById(R.id.crime_title);
-        mTitleFiled.setText(mCrime.getTitle());
-        mTitleFiled.addTextChangedListener(new TextWatcher() {
-            @Override
-            public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
-                // empty method - it's ok
-            }
-
-            @Override
-            public void onTextChanged(CharSequence charSequence, int i, int i1, int i2) {
-                mCrime.setTitle(charSequence.toString());
-                updateCrime();
-            }
-
-            @Override
-            public void afterTextChanged(Editable editable) {
-                // empty method - it's ok
-            }
-        });
 
         mDateButton = v.findViewById(R.id.crime_date);
-        updateDate();
         mDateButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                if (mCrime == null) {
+                    return;
+                }
                 FragmentManager fm = getFragmentManager();
                 DatePickerFragment dialog = DatePickerFragment.newInstance(mCrime.getDate());
                 dialog.setTargetFragment(CrimeFragment.this, REQUEST_DATE);
@@ -138,19 +168,14 @@ public class CrimeFragment extends Fragment {
 
 
         mSolvedCheckBox = v.findViewById(R.id.crime_solved);
-        mSolvedCheckBox.setChecked(mCrime.isSolved());
-        mSolvedCheckBox.setOnCheckedChangeListener(new OnCheckedChangeListener() {
-            @Override
-            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                mCrime.setSolved(isChecked);
-                updateCrime();
-            }
-        });
 
         mReportButton = v.findViewById(R.id.crime_report);
         mReportButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                if (mCrime == null) {
+                    return;
+                }
                 // Using intent builder (challenge 15.1)
                 ShareCompat.IntentBuilder.from(getActivity())
                         .setType("text/plain")
@@ -170,21 +195,17 @@ public class CrimeFragment extends Fragment {
                 startActivityForResult(pickContact, REQUEST_CONTACT);
             }
         });
-        if (mCrime.getSuspect() != null) {
-            mSuspectButton.setText(mCrime.getSuspect());
-        }
 
         PackageManager packageManager = getActivity().getPackageManager();
-        if (packageManager.resolveActivity(pickContact, PackageManager.MATCH_DEFAULT_ONLY) == null) {
-            mSuspectButton.setEnabled(false);
-        }
+        mCanPickContact = packageManager
+                .resolveActivity(pickContact, PackageManager.MATCH_DEFAULT_ONLY) != null;
+        mSuspectButton.setEnabled(false);
 
         mPhotoButton = v.findViewById(R.id.crime_camera);
 
         final Intent captureImage = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
-        boolean canTakePhoto = mPhotoFile != null &&
-                captureImage.resolveActivity(packageManager) != null;
-        mPhotoButton.setEnabled(canTakePhoto);
+        mCanTakePhoto = captureImage.resolveActivity(packageManager) != null;
+        mPhotoButton.setEnabled(false);
         mPhotoButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -211,6 +232,9 @@ public class CrimeFragment extends Fragment {
         mPhotoView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                if (mPhotoFile == null) {
+                    return;
+                }
                 FragmentManager fm = getFragmentManager();
                 PhotoViewFragment dialog = PhotoViewFragment.newInstance(mPhotoFile);
                 dialog.show(fm, DIALOG_PHOTO);
@@ -231,19 +255,69 @@ public class CrimeFragment extends Fragment {
             });
         }
 
+        if (mCrime != null) {
+            bindCrime();
+        }
+
         return v;
     }
 
+    /**
+     * Заполняет виджеты данными преступления. Вызывается один раз для каждого
+     * созданного представления - либо из onCreateView, либо после загрузки.
+     */
+    private void bindCrime() {
+        mTitleFiled.setText(mCrime.getTitle());
+        mTitleFiled.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+                // empty method - it's ok
+            }
+
+            @Override
+            public void onTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+                mCrime.setTitle(charSequence.toString());
+                updateCrime(CrimeChange.FIELD_TITLE);
+            }
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                // empty method - it's ok
+            }
+        });
+
+        updateDate();
+
+        mSolvedCheckBox.setChecked(mCrime.isSolved());
+        mSolvedCheckBox.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                mCrime.setSolved(isChecked);
+                updateCrime(CrimeChange.FIELD_SOLVED);
+            }
+        });
+
+        if (mCrime.getSuspect() != null) {
+            mSuspectButton.setText(mCrime.getSuspect());
+        }
+        mSuspectButton.setEnabled(mCanPickContact);
+        mPhotoButton.setEnabled(mCanTakePhoto);
+
+        if (mPhotoWidth > 0) {
+            updatePhotoView();
+        }
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
 
-        if (resultCode != Activity.RESULT_OK) {
+        if (resultCode != Activity.RESULT_OK || mCrime == null) {
             return;
         }
         if (requestCode == REQUEST_DATE) {
             Date date = (Date) data.getSerializableExtra(DatePickerFragment.EXTRA_DATE);
             mCrime.setDate(date);
-            updateCrime();
+            updateCrime(CrimeChange.FIELD_DATE);
             updateDate();
         } else if (requestCode == REQUEST_CONTACT && data != null) {
             Uri contactUri = data.getData();
@@ -266,7 +340,7 @@ public class CrimeFragment extends Fragment {
                 c.moveToFirst();
                 String suspect = c.getString(0);
                 mCrime.setSuspect(suspect);
-                updateCrime();
+                updateCrime(CrimeChange.FIELD_SUSPECT);
                 mSuspectButton.setText(suspect);
             } finally {
                 c.close();
@@ -276,15 +350,16 @@ public class CrimeFragment extends Fragment {
                     "com.azavyalov.criminalintent.fileprovider",
                     mPhotoFile);
             getActivity().revokeUriPermission(uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-            updateCrime();
-            updatePhotoView();
+            onPhotoTaken();
         }
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        CrimeLab.getInstance(getActivity()).updateCrime(mCrime);
+        // Every edit is already queued. The process may be killed without notice once
+        // the app is in the background, so this is the last safe point to write it
+        CrimeWriteQueue.getInstance(getActivity()).flush();
     }
 
     @Override
@@ -297,7 +372,12 @@ public class CrimeFragment extends Fragment {
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
 
         if (item.getItemId() == R.id.delete_crime) {
-            CrimeLab.getInstance(getActivity()).deleteCrime(mCrime);
+            if (mCrime != null) {
+                CrimeWriteQueue.getInstance(getActivity()).discard(mCrime);
+                CrimeLab.getInstance(getActivity()).deleteCrimeAsync(mCrime, null);
+                // onPause must not write the deleted crime back
+                mCrime = null;
+            }
             getActivity().finish();
             return true;
         }
@@ -307,12 +387,16 @@ public class CrimeFragment extends Fragment {
     @Override
     public void onDetach() {
         super.onDetach();
+        if (mCrimeRequest != null) {
+            mCrimeRequest.cancel(false);
+            mCrimeRequest = null;
+        }
+        CrimeWriteQueue.getInstance(getActivity()).removeListener(mWriteListener);
         mCallbacks = null;
     }
 
-    private void updateCrime() {
-        CrimeLab.getInstance(getActivity()).updateCrime(mCrime);
-        mCallbacks.onCrimeUpdated(mCrime);
+    private void updateCrime(int changedField) {
+        CrimeWriteQueue.getInstance(getActivity()).enqueue(mCrime, changedField);
     }
 
     private void updateDate() {
@@ -344,13 +428,55 @@ public class CrimeFragment extends Fragment {
                 suspect);
     }
 
+    /**
+     * Новая фотография показывается и рассылается только после того, как для
+     * неё созданы миниатюра и превью, иначе список прочитал бы старые копии.
+     */
+    private void onPhotoTaken() {
+        final Crime crime = mCrime;
+        final Context appContext = getActivity().getApplicationContext();
+        CrimeLab crimeLab = CrimeLab.getInstance(appContext);
+
+        PhotoLoader.getInstance(appContext).cancel(mPhotoView);
+        mPhotoView.setImageResource(R.drawable.photo_placeholder);
+        PhotoVariants.getInstance(appContext).generate(mPhotoFile,
+                crimeLab.getThumbnailFile(crime), crimeLab.getPreviewFile(crime),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCrime != crime) {
+                            // Deleted meanwhile
+                            return;
+                        }
+                        crime.setHasPhoto(true);
+                        CrimeWriteQueue.getInstance(appContext)
+                                .enqueue(crime, CrimeChange.FIELD_PHOTO);
+                        if (mCallbacks != null) {
+                            mCallbacks.onCrimeUpdated(crime);
+                        }
+                        if (getView() != null && mPhotoWidth > 0) {
+                            updatePhotoView();
+                        }
+                    }
+                });
+    }
+
     private void updatePhotoView() {
+        if (mCrime == null) {
+            // bindCrime() calls this again once the crime is loaded
+            return;
+        }
+        PhotoLoader photoLoader = PhotoLoader.getInstance(getActivity());
+        // The small photo view reads the preview; the original is only a fallback for old photos
+        File previewFile = CrimeLab.getInstance(getActivity()).getPreviewFile(mCrime);
+        File photoFile = previewFile.exists() ? previewFile : mPhotoFile;
         if (mPhotoFile == null || !mPhotoFile.exists()) {
+            photoLoader.cancel(mPhotoView);
             mPhotoView.setImageDrawable(null);
             mPhotoView.setContentDescription(getString(R.string.crime_photo_no_image_description));
         } else {
-            Bitmap bitmap = PictureUtils.getScaledBitmap(mPhotoFile.getPath(), mPhotoWidth, mPhotoHeight);
-            mPhotoView.setImageBitmap(bitmap);
+            photoLoader.load(mPhotoView, photoFile, mPhotoWidth, mPhotoHeight,
+                    R.drawable.photo_placeholder);
             mPhotoView.setContentDescription( getString(R.string.crime_photo_image_description));
         }
     }
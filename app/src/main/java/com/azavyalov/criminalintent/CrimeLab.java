@@ -3,111 +3,965 @@ package com.azavyalov.criminalintent;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
 
 import androidx.core.content.FileProvider;
 
 import com.azavyalov.criminalintent.database.CrimeBaseHelper;
 import com.azavyalov.criminalintent.database.CrimeCursorWrapper;
 import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable;
-import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeSearchTable;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.UuidCodec;
+import com.azavyalov.criminalintent.metrics.Metrics;
+import com.azavyalov.criminalintent.metrics.Timer;
+import com.azavyalov.criminalintent.metrics.WorkType;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols.DATE;
+import static com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols.HAS_PHOTO;
 import static com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols.SOLVED;
 import static com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols.SUSPECT;
 import static com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols.TITLE;
-import static com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols.UUID;
+import static com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols.UUID_LSB;
+import static com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols.UUID_MSB;
 
-public class CrimeLab {
+public class CrimeLab implements CrimeRepository {
+
+    private static final String TAG = "CrimeLab";
+
+    // Enough to cover a full window of CrimePagedList plus the pager neighbours
+    private static final int CRIME_CACHE_SIZE = 512;
+
+    private static final Timer ADD_CRIME = dbTimer("CrimeLab.addCrime");
+    private static final Timer ADD_CRIMES = dbTimer("CrimeLab.addCrimes");
+    private static final Timer GET_CRIME = dbTimer("CrimeLab.getCrime");
+    private static final Timer GET_CRIMES = dbTimer("CrimeLab.getCrimes");
+    private static final Timer GET_CRIME_IDS = dbTimer("CrimeLab.getCrimeIds");
+    private static final Timer GET_CRIME_COUNT = dbTimer("CrimeLab.getCrimeCount");
+    private static final Timer GET_PAGE_AT = dbTimer("CrimeLab.getCrimesPageAt");
+    private static final Timer GET_PAGE_AFTER = dbTimer("CrimeLab.getCrimesPageAfter");
+    private static final Timer GET_PAGE_BEFORE = dbTimer("CrimeLab.getCrimesPageBefore");
+    private static final Timer SEARCH = dbTimer("CrimeLab.search");
+    private static final Timer UPDATE_CRIME = dbTimer("CrimeLab.updateCrime");
+    private static final Timer UPDATE_CRIMES = dbTimer("CrimeLab.updateCrimes");
+    private static final Timer DELETE_CRIME = dbTimer("CrimeLab.deleteCrime");
+    private static final Timer DELETE_CRIMES = dbTimer("CrimeLab.deleteCrimes");
+    private static final Timer GET_STATS = dbTimer("CrimeLab.getStats");
+    private static final Timer GET_COUNTS_BY = dbTimer("CrimeLab.getCountsBy");
+    // From submission to the start on the database thread
+    private static final Timer QUEUE_WAIT = Metrics.timer("CrimeLab.queueWait");
+
+    private static Timer dbTimer(String name) {
+        return Metrics.timer(name, WorkType.DATABASE);
+    }
 
     private static CrimeLab sCrimeLab;
 
     private SQLiteDatabase mDatabase;
     private Context mContext;
+    private final ExecutorService mDbExecutor;
+    private final Handler mMainHandler;
+    // Identity map: one Crime instance per id while it stays in the cache
+    private final LruCache<UUID, Crime> mCrimeCache = new LruCache<>(CRIME_CACHE_SIZE);
+
+    private final List<CrimeObserver> mObservers = new CopyOnWriteArrayList<>();
+
+    // Aggregates are cached until the next write; the generation guards against
+    // caching a result computed before a concurrent write
+    private final AtomicInteger mWriteGeneration = new AtomicInteger();
+    private volatile CrimeStats mStats;
+    private final Map<CrimeStats.Period, List<CrimeStats.Bucket>> mBuckets =
+            Collections.synchronizedMap(
+                    new EnumMap<CrimeStats.Period, List<CrimeStats.Bucket>>(CrimeStats.Period.class));
+
+    /**
+     * Результат асинхронного запроса, доставляется в главном потоке. Если запрос
+     * упал, ошибка пишется в лог, а onResult не вызывается.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Получает изменения отдельных строк в главном потоке, в порядке записи.
+     */
+    public interface CrimeObserver {
+        void onCrimeChanged(CrimeChange change);
+    }
 
     public static CrimeLab getInstance(Context context) {
         if (sCrimeLab == null) {
-            sCrimeLab = new CrimeLab(context);
+            Context appContext = context.getApplicationContext();
+            sCrimeLab = new CrimeLab(appContext, new CrimeBaseHelper(appContext));
+            sCrimeLab.registerMetrics();
         }
         return sCrimeLab;
     }
 
-    private CrimeLab(Context context) {
+    // Visible to instrumented tests, which run against their own database
+    CrimeLab(Context context, CrimeBaseHelper helper) {
         mContext = context.getApplicationContext();
-        mDatabase = new CrimeBaseHelper(mContext).getWritableDatabase();
+        mDatabase = helper.getWritableDatabase();
+        // A single thread keeps writes and reads in submission order
+        mDbExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "crime-db");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    private void registerMetrics() {
+        Metrics.register("CrimeLab.cacheHits", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getCacheHitCount();
+            }
+        });
+        Metrics.register("CrimeLab.cacheMisses", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getCacheMissCount();
+            }
+        });
     }
 
+    public void registerObserver(CrimeObserver observer) {
+        mObservers.add(observer);
+    }
+
+    public void unregisterObserver(CrimeObserver observer) {
+        mObservers.remove(observer);
+    }
+
+    @Override
     public void addCrime(Crime c) {
-        ContentValues values = getContentValues(c);
-        mDatabase.insert(CrimeTable.NAME, null, values);
+        long start = ADD_CRIME.start();
+        try {
+            ContentValues values = getContentValues(c);
+            long rowId = mDatabase.insert(CrimeTable.NAME, null, values);
+            if (rowId != -1) {
+                mCrimeCache.put(c.getId(), c);
+                publish(CrimeChange.inserted(c, rowId));
+            }
+        } finally {
+            ADD_CRIME.stop(start);
+        }
     }
 
+    @Override
     public List<Crime> getCrimes() {
-        List<Crime> crimes = new ArrayList<>();
+        long start = GET_CRIMES.start();
+        try {
+            List<Crime> crimes = new ArrayList<>();
 
-        CrimeCursorWrapper cursor = queryCrimes(null, null);
+            CrimeCursorWrapper cursor = queryCrimes(CrimeTable.Projections.ALL,
+                    null,
+                    null,
+                    CrimeQuery.ALL.getOrderBy(false),
+                    null);
+
+            try {
+                cursor.moveToFirst();
+                while (!cursor.isAfterLast()) {
+                    crimes.add(getCachedCrime(cursor));
+                    cursor.moveToNext();
+                }
+            } finally {
+                cursor.close();
+            }
+            return crimes;
+        } finally {
+            GET_CRIMES.stop(start);
+        }
+    }
 
+    /**
+     * Идентификаторы всех преступлений в порядке getCrimes() без загрузки
+     * самих преступлений.
+     */
+    @Override
+    public CrimeIdList getCrimeIds() {
+        long start = GET_CRIME_IDS.start();
         try {
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                crimes.add(cursor.getCrime());
-                cursor.moveToNext();
+            CrimeCursorWrapper cursor = queryCrimes(CrimeTable.Projections.ID_AND_DATE,
+                    null,
+                    null,
+                    CrimeQuery.ALL.getOrderBy(false),
+                    null);
+            try {
+                CrimeIdList ids = new CrimeIdList(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getCrimeId(), cursor.getDateMillis());
+                }
+                return ids;
+            } finally {
+                cursor.close();
             }
         } finally {
-            cursor.close();
+            GET_CRIME_IDS.stop(start);
         }
-        return crimes;
     }
 
+    /**
+     * Преступление из кеша или null, без обращения к БД - можно вызывать из
+     * главного потока.
+     */
+    public Crime peekCrime(UUID id) {
+        return mCrimeCache.get(id);
+    }
+
+    @Override
     public Crime getCrime(UUID id) {
+        long start = GET_CRIME.start();
+        try {
+            Crime cached = mCrimeCache.get(id);
+            if (cached != null) {
+                return cached;
+            }
 
-        CrimeCursorWrapper cursor = queryCrimes(
-                Cols.UUID + " = ?",
-                new String[]{id.toString()}
-        );
+            CrimeCursorWrapper cursor = queryCrimes(
+                    UuidCodec.WHERE_ID,
+                    UuidCodec.getWhereArgs(id)
+            );
 
+            try {
+                if (cursor.getCount() == 0) {
+                    return null;
+                }
+                cursor.moveToFirst();
+                Crime crime = cursor.getCrime(id);
+                mCrimeCache.put(id, crime);
+                return crime;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            GET_CRIME.stop(start);
+        }
+    }
+
+    /**
+     * Полнотекстовый поиск по названию и подозреваемому. Каждое слово запроса
+     * ищется как префикс, все слова должны найтись. Совпадения в названии идут
+     * первыми. Возвращает не больше limit преступлений, начиная с offset.
+     */
+    @Override
+    public List<Crime> search(String query, int offset, int limit) {
+        long start = SEARCH.start();
         try {
-            if (cursor.getCount() == 0) {
-                return null;
+            List<Crime> crimes = new ArrayList<>();
+            String match = CrimeSearchTable.toMatchQuery(query);
+            if (match.isEmpty()) {
+                return crimes;
+            }
+            CrimeCursorWrapper cursor = new CrimeCursorWrapper(
+                    mDatabase.rawQuery(CrimeSearchTable.Statements.SEARCH,
+                            new String[]{match, String.valueOf(limit), String.valueOf(offset)}));
+            try {
+                while (cursor.moveToNext()) {
+                    crimes.add(getCachedCrime(cursor));
+                }
+            } finally {
+                cursor.close();
             }
+            return crimes;
+        } finally {
+            SEARCH.stop(start);
+        }
+    }
+
+    public int getCrimeCount() {
+        long start = GET_CRIME_COUNT.start();
+        try {
+            return (int) DatabaseUtils.queryNumEntries(mDatabase, CrimeTable.NAME);
+        } finally {
+            GET_CRIME_COUNT.stop(start);
+        }
+    }
+
+    @Override
+    public int getCrimeCount(CrimeQuery query) {
+        long start = GET_CRIME_COUNT.start();
+        try {
+            return (int) DatabaseUtils.queryNumEntries(mDatabase, CrimeTable.NAME,
+                    query.getWhere(), query.getWhereArgs());
+        } finally {
+            GET_CRIME_COUNT.stop(start);
+        }
+    }
+
+    public CrimePage getCrimesPageAt(int position, int limit) {
+        return getCrimesPageAt(CrimeQuery.ALL, position, limit);
+    }
+
+    public CrimePage getCrimesPageAfter(CrimePage.Key key, int limit) {
+        return getCrimesPageAfter(CrimeQuery.ALL, key, limit);
+    }
+
+    public CrimePage getCrimesPageBefore(CrimePage.Key key, int limit) {
+        return getCrimesPageBefore(CrimeQuery.ALL, key, limit);
+    }
+
+    /**
+     * Загружает страницу, начинающуюся с позиции position. Смещение используется
+     * только для поиска ключа предыдущей строки, дальше - keyset-запрос.
+     */
+    @Override
+    public CrimePage getCrimesPageAt(CrimeQuery query, int position, int limit) {
+        long start = GET_PAGE_AT.start();
+        try {
+            if (position <= 0) {
+                return loadPage(query, null, limit, false);
+            }
+            CrimeCursorWrapper keyCursor = queryCrimes(CrimeTable.Projections.PAGE_KEY,
+                    query.getWhere(),
+                    query.getWhereArgs(),
+                    query.getOrderBy(false),
+                    (position - 1) + ",1");
+            CrimePage.Key key;
+            try {
+                if (!keyCursor.moveToFirst()) {
+                    return new CrimePage(new ArrayList<Crime>(), null, null);
+                }
+                key = keyCursor.getPageKey(query.getSort());
+            } finally {
+                keyCursor.close();
+            }
+            // Not through getCrimesPageAfter, so the page isn't timed twice
+            return loadPage(query, key, limit, false);
+        } finally {
+            GET_PAGE_AT.stop(start);
+        }
+    }
+
+    @Override
+    public CrimePage getCrimesPageAfter(CrimeQuery query, CrimePage.Key key, int limit) {
+        long start = GET_PAGE_AFTER.start();
+        try {
+            return loadPage(query, key, limit, false);
+        } finally {
+            GET_PAGE_AFTER.stop(start);
+        }
+    }
+
+    @Override
+    public CrimePage getCrimesPageBefore(CrimeQuery query, CrimePage.Key key, int limit) {
+        long start = GET_PAGE_BEFORE.start();
+        try {
+            return loadPage(query, key, limit, true);
+        } finally {
+            GET_PAGE_BEFORE.stop(start);
+        }
+    }
+
+    private CrimePage loadPage(CrimeQuery query, CrimePage.Key key, int limit, boolean reversed) {
+        String whereClause = query.getWhere();
+        String[] whereArgs = query.getWhereArgs();
+        if (key != null) {
+            String keyWhere = query.getKeyWhere(key, reversed);
+            whereClause = whereClause == null ? keyWhere : whereClause + " AND " + keyWhere;
+            whereArgs = concat(whereArgs, query.getKeyArgs(key));
+        }
+        List<Crime> crimes = new ArrayList<>();
+        CrimePage.Key firstKey = null;
+        CrimePage.Key lastKey = null;
+
+        CrimeCursorWrapper cursor = queryCrimes(CrimeTable.Projections.ALL,
+                whereClause,
+                whereArgs,
+                query.getOrderBy(reversed),
+                String.valueOf(limit));
+        try {
             cursor.moveToFirst();
-            return cursor.getCrime();
+            while (!cursor.isAfterLast()) {
+                // Pages hold snapshots so a refresh can be diffed against them
+                crimes.add(new Crime(getCachedCrime(cursor)));
+                if (firstKey == null) {
+                    firstKey = cursor.getPageKey(query.getSort());
+                }
+                if (cursor.isLast()) {
+                    lastKey = cursor.getPageKey(query.getSort());
+                }
+                cursor.moveToNext();
+            }
         } finally {
             cursor.close();
         }
+
+        if (reversed) {
+            Collections.reverse(crimes);
+            return new CrimePage(crimes, lastKey, firstKey);
+        }
+        return new CrimePage(crimes, firstKey, lastKey);
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (first == null) {
+            return second;
+        }
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
     }
 
     public void updateCrime(Crime crime) {
-        String uuidString = crime.getId().toString();
-        ContentValues values = getContentValues(crime);
+        updateCrime(crime, CrimeChange.ALL_FIELDS);
+    }
+
+    /**
+     * changedFields - маска CrimeChange.FIELD_*, передаётся наблюдателям.
+     */
+    @Override
+    public void updateCrime(Crime crime, int changedFields) {
+        long start = UPDATE_CRIME.start();
+        try {
+            ContentValues values = getContentValues(crime);
+
+            int updated = mDatabase.update(
+                    CrimeTable.NAME,
+                    values,
+                    UuidCodec.WHERE_ID,
+                    UuidCodec.getWhereArgs(crime.getId()));
+            if (updated > 0) {
+                mCrimeCache.put(crime.getId(), crime);
+                publish(CrimeChange.updated(crime, changedFields));
+            }
+        } finally {
+            UPDATE_CRIME.stop(start);
+        }
+    }
+
+    /**
+     * Пакетные операции выполняются в одной транзакции с одним
+     * скомпилированным выражением на весь пакет.
+     */
+    @Override
+    public void addCrimes(Collection<Crime> crimes) {
+        long start = ADD_CRIMES.start();
+        try {
+            SQLiteStatement insert = mDatabase.compileStatement(CrimeTable.Statements.INSERT);
+            List<CrimeChange> changes = new ArrayList<>(crimes.size());
+            mDatabase.beginTransaction();
+            try {
+                for (Crime crime : crimes) {
+                    insert.bindLong(1, UuidCodec.getMostSignificantBits(crime.getId()));
+                    insert.bindLong(2, UuidCodec.getLeastSignificantBits(crime.getId()));
+                    bindCrimeFields(insert, 3, crime);
+                    changes.add(CrimeChange.inserted(crime, insert.executeInsert()));
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+                insert.close();
+            }
+            for (CrimeChange change : changes) {
+                mCrimeCache.put(change.getId(), change.getCrime());
+                publish(change);
+            }
+        } finally {
+            ADD_CRIMES.stop(start);
+        }
+    }
+
+    public void updateCrimes(Collection<Crime> crimes) {
+        updateCrimes(crimes, CrimeChange.ALL_FIELDS);
+    }
 
-        mDatabase.update(
-                CrimeTable.NAME,
-                values,
-                Cols.UUID + " = ?",
-                new String[]{uuidString});
+    /**
+     * changedFields относится ко всему пакету: наблюдатели получают одну и ту же
+     * маску для каждого преступления.
+     */
+    @Override
+    public void updateCrimes(Collection<Crime> crimes, int changedFields) {
+        int[] fields = new int[crimes.size()];
+        Arrays.fill(fields, changedFields);
+        updateCrimes(new ArrayList<>(crimes), fields);
+    }
+
+    /**
+     * changedFields[i] - маска изменённых полей crimes.get(i), её и получат наблюдатели.
+     */
+    public void updateCrimes(List<Crime> crimes, int[] changedFields) {
+        long start = UPDATE_CRIMES.start();
+        try {
+            SQLiteStatement update = mDatabase.compileStatement(CrimeTable.Statements.UPDATE);
+            List<CrimeChange> updated = new ArrayList<>(crimes.size());
+            mDatabase.beginTransaction();
+            try {
+                for (int i = 0; i < crimes.size(); i++) {
+                    Crime crime = crimes.get(i);
+                    bindCrimeFields(update, 1, crime);
+                    update.bindLong(6, UuidCodec.getMostSignificantBits(crime.getId()));
+                    update.bindLong(7, UuidCodec.getLeastSignificantBits(crime.getId()));
+                    if (update.executeUpdateDelete() > 0) {
+                        updated.add(CrimeChange.updated(crime, changedFields[i]));
+                    }
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+                update.close();
+            }
+            for (CrimeChange change : updated) {
+                mCrimeCache.put(change.getId(), change.getCrime());
+                publish(change);
+            }
+        } finally {
+            UPDATE_CRIMES.stop(start);
+        }
+    }
+
+    @Override
+    public void deleteCrimes(Collection<UUID> ids) {
+        long start = DELETE_CRIMES.start();
+        try {
+            SQLiteStatement delete = mDatabase.compileStatement(CrimeTable.Statements.DELETE);
+            List<UUID> deleted = new ArrayList<>(ids.size());
+            mDatabase.beginTransaction();
+            try {
+                for (UUID id : ids) {
+                    delete.bindLong(1, UuidCodec.getMostSignificantBits(id));
+                    delete.bindLong(2, UuidCodec.getLeastSignificantBits(id));
+                    if (delete.executeUpdateDelete() > 0) {
+                        deleted.add(id);
+                    }
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+                delete.close();
+            }
+            for (UUID id : ids) {
+                mCrimeCache.remove(id);
+            }
+            for (UUID id : deleted) {
+                publish(CrimeChange.deleted(id));
+            }
+        } finally {
+            DELETE_CRIMES.stop(start);
+        }
+    }
+
+    // Binds title, date, solved, suspect and has_photo starting at the given parameter index
+    private static void bindCrimeFields(SQLiteStatement statement, int index, Crime crime) {
+        bindStringOrNull(statement, index, crime.getTitle());
+        statement.bindLong(index + 1, crime.getDate().getTime());
+        statement.bindLong(index + 2, crime.isSolved() ? 1 : 0);
+        bindStringOrNull(statement, index + 3, crime.getSuspect());
+        statement.bindLong(index + 4, crime.hasPhoto() ? 1 : 0);
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
     }
 
     public void deleteCrime(Crime crime) {
-        mDatabase.delete(CrimeTable.NAME,
-                CrimeTable.Cols.UUID + " = ?",
-                new String[]{crime.getId().toString()});
+        long start = DELETE_CRIME.start();
+        try {
+            int deleted = mDatabase.delete(CrimeTable.NAME,
+                    UuidCodec.WHERE_ID,
+                    UuidCodec.getWhereArgs(crime.getId()));
+            mCrimeCache.remove(crime.getId());
+            if (deleted > 0) {
+                publish(CrimeChange.deleted(crime.getId()));
+            }
+        } finally {
+            DELETE_CRIME.stop(start);
+        }
+    }
+
+    /**
+     * Всего, раскрыто и не раскрыто - один агрегатный запрос по индексу solved
+     * или значение из кеша, если с тех пор не было записей.
+     */
+    @Override
+    public CrimeStats getStats() {
+        long start = GET_STATS.start();
+        try {
+            CrimeStats stats = mStats;
+            if (stats != null) {
+                return stats;
+            }
+            int generation = mWriteGeneration.get();
+            Cursor cursor = mDatabase.rawQuery(CrimeTable.Statements.STATS, null);
+            try {
+                cursor.moveToFirst();
+                stats = new CrimeStats(cursor.getInt(0), cursor.getInt(1));
+            } finally {
+                cursor.close();
+            }
+            if (generation == mWriteGeneration.get()) {
+                mStats = stats;
+            }
+            return stats;
+        } finally {
+            GET_STATS.stop(start);
+        }
+    }
+
+    /**
+     * Количество преступлений по дням или месяцам, от ранних к поздним.
+     */
+    @Override
+    public List<CrimeStats.Bucket> getCountsBy(CrimeStats.Period period) {
+        long start = GET_COUNTS_BY.start();
+        try {
+            List<CrimeStats.Bucket> buckets = mBuckets.get(period);
+            if (buckets != null) {
+                return buckets;
+            }
+            int generation = mWriteGeneration.get();
+            Cursor cursor = mDatabase.rawQuery(CrimeTable.Statements.countsBy(period), null);
+            buckets = new ArrayList<>();
+            try {
+                while (cursor.moveToNext()) {
+                    buckets.add(new CrimeStats.Bucket(cursor.getString(0), cursor.getInt(1),
+                            cursor.getInt(2)));
+                }
+            } finally {
+                cursor.close();
+            }
+            buckets = Collections.unmodifiableList(buckets);
+            if (generation == mWriteGeneration.get()) {
+                mBuckets.put(period, buckets);
+            }
+            return buckets;
+        } finally {
+            GET_COUNTS_BY.stop(start);
+        }
+    }
+
+    private void invalidateStats() {
+        mWriteGeneration.incrementAndGet();
+        mStats = null;
+        mBuckets.clear();
+    }
+
+    private void publish(final CrimeChange change) {
+        // Every successful write goes through here
+        invalidateStats();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (CrimeObserver observer : mObservers) {
+                    observer.onCrimeChanged(change);
+                }
+            }
+        });
+    }
+
+    public int getCacheHitCount() {
+        return mCrimeCache.hitCount();
+    }
+
+    public int getCacheMissCount() {
+        return mCrimeCache.missCount();
+    }
+
+    /**
+     * Возвращает закешированный экземпляр для текущей строки курсора и
+     * собирает новый объект только при промахе.
+     */
+    private Crime getCachedCrime(CrimeCursorWrapper cursor) {
+        UUID id = cursor.getCrimeId();
+        synchronized (mCrimeCache) {
+            Crime crime = mCrimeCache.get(id);
+            if (crime == null) {
+                crime = cursor.getCrime(id);
+                mCrimeCache.put(id, crime);
+            }
+            return crime;
+        }
+    }
+
+    public Future<List<Crime>> getCrimesAsync(Callback<List<Crime>> callback) {
+        return submit(new Callable<List<Crime>>() {
+            @Override
+            public List<Crime> call() {
+                return getCrimes();
+            }
+        }, callback);
+    }
+
+    public Future<CrimeIdList> getCrimeIdsAsync(Callback<CrimeIdList> callback) {
+        return submit(new Callable<CrimeIdList>() {
+            @Override
+            public CrimeIdList call() {
+                return getCrimeIds();
+            }
+        }, callback);
+    }
+
+    public Future<Integer> getCrimeCountAsync(Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return getCrimeCount();
+            }
+        }, callback);
+    }
+
+    public Future<Integer> getCrimeCountAsync(final CrimeQuery query, Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return getCrimeCount(query);
+            }
+        }, callback);
+    }
+
+    public Future<CrimePage> getCrimesPageAtAsync(final CrimeQuery query, final int position,
+                                                 final int limit, Callback<CrimePage> callback) {
+        return submit(new Callable<CrimePage>() {
+            @Override
+            public CrimePage call() {
+                return getCrimesPageAt(query, position, limit);
+            }
+        }, callback);
+    }
+
+    public Future<CrimePage> getCrimesPageAfterAsync(final CrimeQuery query,
+                                                    final CrimePage.Key key, final int limit,
+                                                    Callback<CrimePage> callback) {
+        return submit(new Callable<CrimePage>() {
+            @Override
+            public CrimePage call() {
+                return getCrimesPageAfter(query, key, limit);
+            }
+        }, callback);
+    }
+
+    public Future<CrimePage> getCrimesPageBeforeAsync(final CrimeQuery query,
+                                                     final CrimePage.Key key, final int limit,
+                                                     Callback<CrimePage> callback) {
+        return submit(new Callable<CrimePage>() {
+            @Override
+            public CrimePage call() {
+                return getCrimesPageBefore(query, key, limit);
+            }
+        }, callback);
+    }
+
+    public Future<List<Crime>> searchAsync(final String query, final int offset, final int limit,
+                                           Callback<List<Crime>> callback) {
+        return submit(new Callable<List<Crime>>() {
+            @Override
+            public List<Crime> call() {
+                return search(query, offset, limit);
+            }
+        }, callback);
+    }
+
+    public Future<CrimeStats> getStatsAsync(Callback<CrimeStats> callback) {
+        return submit(new Callable<CrimeStats>() {
+            @Override
+            public CrimeStats call() {
+                return getStats();
+            }
+        }, callback);
+    }
+
+    public Future<List<CrimeStats.Bucket>> getCountsByAsync(final CrimeStats.Period period,
+                                                           Callback<List<CrimeStats.Bucket>> callback) {
+        return submit(new Callable<List<CrimeStats.Bucket>>() {
+            @Override
+            public List<CrimeStats.Bucket> call() {
+                return getCountsBy(period);
+            }
+        }, callback);
+    }
+
+    public Future<Crime> getCrimeAsync(final UUID id, Callback<Crime> callback) {
+        return submit(new Callable<Crime>() {
+            @Override
+            public Crime call() {
+                return getCrime(id);
+            }
+        }, callback);
+    }
+
+    public Future<Crime> addCrimeAsync(final Crime crime, Callback<Crime> callback) {
+        return submit(new Callable<Crime>() {
+            @Override
+            public Crime call() {
+                addCrime(crime);
+                return crime;
+            }
+        }, callback);
+    }
+
+    public Future<Crime> updateCrimeAsync(final Crime crime, Callback<Crime> callback) {
+        return submit(new Callable<Crime>() {
+            @Override
+            public Crime call() {
+                updateCrime(crime);
+                return crime;
+            }
+        }, callback);
+    }
+
+    public Future<Collection<Crime>> updateCrimesAsync(final List<Crime> crimes,
+                                                       final int[] changedFields,
+                                                       Callback<Collection<Crime>> callback) {
+        return submit(new Callable<Collection<Crime>>() {
+            @Override
+            public Collection<Crime> call() {
+                updateCrimes(crimes, changedFields);
+                return crimes;
+            }
+        }, callback);
+    }
+
+    public Future<Collection<Crime>> addCrimesAsync(final Collection<Crime> crimes,
+                                                    Callback<Collection<Crime>> callback) {
+        return submit(new Callable<Collection<Crime>>() {
+            @Override
+            public Collection<Crime> call() {
+                addCrimes(crimes);
+                return crimes;
+            }
+        }, callback);
+    }
+
+    public Future<Collection<UUID>> deleteCrimesAsync(final Collection<UUID> ids,
+                                                      Callback<Collection<UUID>> callback) {
+        return submit(new Callable<Collection<UUID>>() {
+            @Override
+            public Collection<UUID> call() {
+                deleteCrimes(ids);
+                return ids;
+            }
+        }, callback);
+    }
+
+    public Future<Crime> deleteCrimeAsync(final Crime crime, Callback<Crime> callback) {
+        return submit(new Callable<Crime>() {
+            @Override
+            public Crime call() {
+                deleteCrime(crime);
+                return crime;
+            }
+        }, callback);
+    }
+
+    /**
+     * Выполняет произвольную работу в потоке БД, например чтение вместе с
+     * обработкой результата, и доставляет его в главный поток.
+     */
+    public <T> Future<T> executeAsync(Callable<T> call, Callback<T> callback) {
+        return submit(call, callback);
+    }
+
+    /**
+     * Runs the call on the database thread. Cancelling the returned future
+     * (e.g. from onDetach) guarantees the callback will not be invoked.
+     */
+    private <T> Future<T> submit(Callable<T> call, Callback<T> callback) {
+        DbTask<T> task = new DbTask<>(call, callback);
+        mDbExecutor.execute(task);
+        return task;
+    }
+
+    private class DbTask<T> extends FutureTask<T> {
+
+        private final Callback<T> mCallback;
+        private final long mSubmitted = QUEUE_WAIT.mark();
+        private volatile boolean mCancelled;
+
+        DbTask(Callable<T> call, Callback<T> callback) {
+            super(call);
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            QUEUE_WAIT.recordSince(mSubmitted);
+            super.run();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // FutureTask can't be cancelled once done, but delivery still can
+            mCancelled = true;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            final T result;
+            try {
+                result = get();
+            } catch (InterruptedException | ExecutionException e) {
+                // Logged here, on the database thread, so writes without a callback
+                // don't fail silently; a failed query must not crash the UI
+                Log.e(TAG, "Database task failed", e.getCause() != null ? e.getCause() : e);
+                return;
+            }
+            if (mCallback == null) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onResult(result);
+                    }
+                }
+            });
+        }
     }
 
     private CrimeCursorWrapper queryCrimes(String whereClause, String[] whereArgs) {
+        return queryCrimes(CrimeTable.Projections.ALL, whereClause, whereArgs, null, null);
+    }
+
+    private CrimeCursorWrapper queryCrimes(String[] projection, String whereClause,
+                                           String[] whereArgs, String orderBy, String limit) {
 
         Cursor cursor = mDatabase.query(CrimeTable.NAME,
-                null, // - с null выбираются все столбцы
+                projection,
                 whereClause,
                 whereArgs,
                 null,
                 null,
-                null);
+                orderBy,
+                limit);
 
         return new CrimeCursorWrapper(cursor);
     }
@@ -115,11 +969,13 @@ public class CrimeLab {
     // Converting crime object to content values
     private static ContentValues getContentValues(Crime crime) {
         ContentValues values = new ContentValues();
-        values.put(UUID, crime.getId().toString());
+        values.put(UUID_MSB, UuidCodec.getMostSignificantBits(crime.getId()));
+        values.put(UUID_LSB, UuidCodec.getLeastSignificantBits(crime.getId()));
         values.put(TITLE, crime.getTitle());
         values.put(DATE, crime.getDate().getTime());
         values.put(SOLVED, crime.isSolved() ? 1 : 0);
         values.put(SUSPECT, crime.getSuspect());
+        values.put(HAS_PHOTO, crime.hasPhoto() ? 1 : 0);
         return values;
     }
 
@@ -127,4 +983,12 @@ public class CrimeLab {
         File filesDir = mContext.getFilesDir();
         return new File(filesDir, crime.getPhotoFilename());
     }
+
+    public File getThumbnailFile(Crime crime) {
+        return new File(mContext.getFilesDir(), crime.getThumbnailFilename());
+    }
+
+    public File getPreviewFile(Crime crime) {
+        return new File(mContext.getFilesDir(), crime.getPreviewFilename());
+    }
 }
@@ -1,11 +1,23 @@
 package com.azavyalov.criminalintent;
 
 import android.content.Intent;
+import android.os.Bundle;
 
 import androidx.fragment.app.Fragment;
 
+import com.azavyalov.criminalintent.photo.PhotoCompactor;
+
 public class CrimeListActivity extends SingleFragmentActivity implements CrimeListFragment.Callbacks, CrimeFragment.Callbacks {
 
+    private final CrimeLab.CrimeObserver mCrimeObserver = new CrimeLab.CrimeObserver() {
+        @Override
+        public void onCrimeChanged(CrimeChange change) {
+            if (change.getType() == CrimeChange.Type.DELETED) {
+                removeDetail(change);
+            }
+        }
+    };
+
     @Override
     protected Fragment createFragment() {
         return new CrimeListFragment();
@@ -16,6 +28,22 @@ public class CrimeListActivity extends SingleFragmentActivity implements CrimeLi
         return R.layout.activity_masterdetail;
     }
 
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        CrimeLab.getInstance(this).registerObserver(mCrimeObserver);
+        if (savedInstanceState == null) {
+            // Once per launch; upright photos are skipped after a bounds and EXIF read
+            PhotoCompactor.getInstance(this).compactAllAsync(null);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        CrimeLab.getInstance(this).unregisterObserver(mCrimeObserver);
+    }
+
     @Override
     public void onCrimeSelected(Crime crime) {
 
@@ -34,8 +62,20 @@ public class CrimeListActivity extends SingleFragmentActivity implements CrimeLi
 
     @Override
     public void onCrimeUpdated(Crime crime) {
-        CrimeListFragment listFragment = (CrimeListFragment) getSupportFragmentManager()
-                .findFragmentById(R.id.fragment_container);
-        listFragment.updateUi();
+        // The list observes CrimeLab and patches the changed row itself
+    }
+
+    // Two-pane layout: close the detail pane if its crime was deleted elsewhere
+    private void removeDetail(CrimeChange change) {
+        Fragment detail = getSupportFragmentManager()
+                .findFragmentById(R.id.detail_fragment_container);
+        if (detail instanceof CrimeFragment
+                && ((CrimeFragment) detail).getCrimeId().equals(change.getId())
+                && !getSupportFragmentManager().isStateSaved()) {
+            getSupportFragmentManager()
+                    .beginTransaction()
+                    .remove(detail)
+                    .commit();
+        }
     }
 }
@@ -2,6 +2,8 @@ package com.azavyalov.criminalintent;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -14,28 +16,77 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import com.azavyalov.criminalintent.metrics.FrameTracker;
+import com.azavyalov.criminalintent.metrics.Metrics;
+import com.azavyalov.criminalintent.metrics.Timer;
+import com.azavyalov.criminalintent.metrics.WorkType;
+import com.azavyalov.criminalintent.photo.PhotoLoader;
+
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 
 public class CrimeListFragment extends Fragment {
 
+    private static final long SEARCH_DEBOUNCE_MILLIS = 300;
+    private static final int SEARCH_PAGE_SIZE = 50;
+    // Next search page is requested this many rows before the end
+    private static final int SEARCH_PREFETCH_DISTANCE = 10;
+    private static final String DIALOG_METRICS = "dialog_metrics";
+    private static final Timer BIND = Metrics.timer("CrimeList.bind", WorkType.BIND);
+
     private RecyclerView mCrimeRecyclerView;
     private CrimeAdapter mAdapter;
     private boolean mSubtitleVisible;
     private TextView mEmptyTextView;
+    private FrameTracker mFrameTracker;
     private Callbacks mCallbacks;
+    private CrimePagedList mCrimes;
+    private CrimeQuery mQuery = CrimeQuery.ALL;
+    private Future<CrimeStats> mStatsRequest;
+
+    // Non-null while search results are shown instead of the full list
+    private SearchAdapter mSearchAdapter;
+    private String mSearchQuery;
+    private Future<List<Crime>> mSearchRequest;
+    private final Handler mSearchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            runSearch();
+        }
+    };
+
+    private final CrimeLab.CrimeObserver mCrimeObserver = new CrimeLab.CrimeObserver() {
+        @Override
+        public void onCrimeChanged(CrimeChange change) {
+            if (mCrimes != null) {
+                mCrimes.applyChange(change);
+            }
+            updateSubtitle();
+            if (isSearching()) {
+                // Results may have changed; re-run once the burst of changes is over
+                mSearchHandler.removeCallbacks(mSearchRunnable);
+                mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MILLIS);
+            }
+        }
+    };
 
     private static final String SAVED_SUBTITLE_VISIBLE = "subtitle";
+    private static final String SAVED_QUERY = "query";
+    private static final long LAST_MONTH_MILLIS = TimeUnit.DAYS.toMillis(30);
 
     /**
      * Обязательный интерфейс для активности-хоста.
@@ -55,6 +106,8 @@ public class CrimeListFragment extends Fragment {
         super.onCreate(savedInstanceState);
         // сообщаем FragmentManager, что экземпляр CrimeListFragment должен получать обратные вызовы меню.
         setHasOptionsMenu(true);
+        // Registered for the whole fragment lifetime so changes made in the pager are not missed
+        CrimeLab.getInstance(getActivity()).registerObserver(mCrimeObserver);
     }
 
     @Nullable
@@ -65,9 +118,24 @@ public class CrimeListFragment extends Fragment {
         mEmptyTextView = view.findViewById(R.id.empty_text_view);
         mCrimeRecyclerView = view.findViewById(R.id.crime_recycler_view);
         mCrimeRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        mFrameTracker = new FrameTracker(getActivity(), "CrimeList");
+        mCrimeRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    mFrameTracker.stop();
+                } else {
+                    mFrameTracker.start();
+                }
+            }
+        });
 
         if (savedInstanceState != null) {
             mSubtitleVisible = savedInstanceState.getBoolean(SAVED_SUBTITLE_VISIBLE);
+            CrimeQuery query = (CrimeQuery) savedInstanceState.getSerializable(SAVED_QUERY);
+            if (query != null) {
+                mQuery = query;
+            }
         }
 
         updateUi();
@@ -75,17 +143,47 @@ public class CrimeListFragment extends Fragment {
         return view;
     }
 
-    @Override
-    public void onResume() {
-        super.onResume();
-        updateUi();
-    }
-
     @Override
     public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
         super.onCreateOptionsMenu(menu, inflater);
         inflater.inflate(R.menu.fragment_crime_list, menu);
 
+        MenuItem searchItem = menu.findItem(R.id.search_crimes);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        if (isSearching()) {
+            // The menu is rebuilt by invalidateOptionsMenu; keep the search open
+            searchItem.expandActionView();
+            searchView.setQuery(mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                setSearchQuery(query, false);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                setSearchQuery(newText, true);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                stopSearch();
+                return true;
+            }
+        });
+
+        updateQueryItems(menu);
+        menu.findItem(R.id.show_metrics).setVisible(Metrics.isEnabled());
+
         MenuItem subtitleItem = menu.findItem(R.id.show_subtitle);
         if (mSubtitleVisible) {
             subtitleItem.setTitle(R.string.hide_subtitle);
@@ -98,70 +196,268 @@ public class CrimeListFragment extends Fragment {
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         switch (item.getItemId()) {
             case R.id.new_crime:
-                Crime crime = new Crime();
-                CrimeLab.getInstance(getActivity()).addCrime(crime);
-                updateUi();
-                mCallbacks.onCrimeSelected(crime);
+                CrimeLab.getInstance(getActivity()).addCrimeAsync(new Crime(),
+                        new CrimeLab.Callback<Crime>() {
+                            @Override
+                            public void onResult(Crime crime) {
+                                if (!isAdded()) {
+                                    return;
+                                }
+                                mCallbacks.onCrimeSelected(crime);
+                            }
+                        });
                 return true;
             case R.id.show_subtitle:
                 mSubtitleVisible = !mSubtitleVisible;
                 getActivity().invalidateOptionsMenu();
                 updateSubtitle();
                 return true;
+            case R.id.show_metrics:
+                new MetricsFragment().show(getFragmentManager(), DIALOG_METRICS);
+                return true;
+            case R.id.filter_solved:
+                setQuery(mQuery.buildUpon()
+                        .setSolved(item.isChecked() ? null : Boolean.TRUE).build());
+                return true;
+            case R.id.filter_unsolved:
+                setQuery(mQuery.buildUpon()
+                        .setSolved(item.isChecked() ? null : Boolean.FALSE).build());
+                return true;
+            case R.id.filter_with_suspect:
+                setQuery(mQuery.buildUpon()
+                        .setHasSuspect(item.isChecked() ? null : Boolean.TRUE).build());
+                return true;
+            case R.id.filter_with_photo:
+                setQuery(mQuery.buildUpon()
+                        .setHasPhoto(item.isChecked() ? null : Boolean.TRUE).build());
+                return true;
+            case R.id.filter_last_month:
+                Long from = item.isChecked() ? null : System.currentTimeMillis() - LAST_MONTH_MILLIS;
+                setQuery(mQuery.buildUpon().setDateRange(from, null).build());
+                return true;
+            case R.id.sort_date_oldest:
+                setQuery(mQuery.buildUpon().setSort(CrimeQuery.Sort.DATE, true).build());
+                return true;
+            case R.id.sort_date_newest:
+                setQuery(mQuery.buildUpon().setSort(CrimeQuery.Sort.DATE, false).build());
+                return true;
+            case R.id.sort_title_ascending:
+                setQuery(mQuery.buildUpon().setSort(CrimeQuery.Sort.TITLE, true).build());
+                return true;
+            case R.id.sort_title_descending:
+                setQuery(mQuery.buildUpon().setSort(CrimeQuery.Sort.TITLE, false).build());
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    private void updateQueryItems(Menu menu) {
+        menu.findItem(R.id.filter_solved).setChecked(Boolean.TRUE.equals(mQuery.getSolved()));
+        menu.findItem(R.id.filter_unsolved).setChecked(Boolean.FALSE.equals(mQuery.getSolved()));
+        menu.findItem(R.id.filter_with_suspect).setChecked(mQuery.getHasSuspect() != null);
+        menu.findItem(R.id.filter_with_photo).setChecked(mQuery.getHasPhoto() != null);
+        menu.findItem(R.id.filter_last_month).setChecked(mQuery.getDateFrom() != null);
+
+        int sortItem;
+        if (mQuery.getSort() == CrimeQuery.Sort.TITLE) {
+            sortItem = mQuery.isAscending() ? R.id.sort_title_ascending : R.id.sort_title_descending;
+        } else {
+            sortItem = mQuery.isAscending() ? R.id.sort_date_oldest : R.id.sort_date_newest;
+        }
+        menu.findItem(sortItem).setChecked(true);
+    }
+
+    private void setQuery(CrimeQuery query) {
+        mQuery = query;
+        if (mCrimes != null) {
+            mCrimes.setQuery(query);
+        }
+        getActivity().invalidateOptionsMenu();
+    }
+
     @Override
     public void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
         outState.putBoolean(SAVED_SUBTITLE_VISIBLE, mSubtitleVisible);
+        outState.putSerializable(SAVED_QUERY, mQuery);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        CrimeLab.getInstance(getActivity()).unregisterObserver(mCrimeObserver);
+        if (mStatsRequest != null) {
+            mStatsRequest.cancel(false);
+            mStatsRequest = null;
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mFrameTracker.stop();
+        mFrameTracker.flush();
+        releaseCrimes();
+        cancelSearch();
+        mSearchQuery = null;
+        mSearchAdapter = null;
     }
 
     @Override
     public void onDetach() {
         super.onDetach();
+        releaseCrimes();
         mCallbacks = null;
     }
 
     public void updateUi() {
-        CrimeLab crimeLab = CrimeLab.getInstance(getActivity());
-        List<Crime> crimes = crimeLab.getCrimes();
-
-        setVisibility(crimes);
-
         if (mAdapter == null) {
-            mAdapter = new CrimeAdapter(crimes);
+            mAdapter = new CrimeAdapter();
+            mCrimes = new CrimePagedList(CrimeLab.getInstance(getActivity()),
+                    CrimeRowFactory.getInstance(getActivity()), mAdapter);
+        }
+        if (mCrimeRecyclerView.getAdapter() != mAdapter) {
             mCrimeRecyclerView.setAdapter(mAdapter);
             // Challenge 17
             initItemTouchHelper();
+        }
+        if (mQuery.equals(mCrimes.getQuery())) {
+            mCrimes.refresh();
         } else {
-            mAdapter.setCrimes(crimes);
-            mAdapter.notifyDataSetChanged();
+            mCrimes.setQuery(mQuery);
         }
-        updateSubtitle();
     }
 
-    private void setVisibility(List<Crime> crimes) {
-        mEmptyTextView.setVisibility(crimes.isEmpty() ? VISIBLE : GONE);
-        mCrimeRecyclerView.setVisibility(crimes.isEmpty() ? GONE : VISIBLE);
+    private void releaseCrimes() {
+        if (mCrimes != null) {
+            mCrimes.release();
+        }
     }
 
-    private void updateSubtitle() {
-        CrimeLab crimeLab = CrimeLab.getInstance(getActivity());
-        int crimeSize = crimeLab.getCrimes().size();
-        String subtitle = getResources()
-                .getQuantityString(R.plurals.subtitle_plural, crimeSize, crimeSize);
+    private void setVisibility(int crimeSize) {
+        mEmptyTextView.setVisibility(crimeSize == 0 ? VISIBLE : GONE);
+        mCrimeRecyclerView.setVisibility(crimeSize == 0 ? GONE : VISIBLE);
+    }
 
+    private void updateSubtitle() {
+        if (mStatsRequest != null) {
+            mStatsRequest.cancel(false);
+            mStatsRequest = null;
+        }
         if (!mSubtitleVisible) {
-            subtitle = null;
+            setSubtitle(null);
+            return;
         }
+        // Served from the CrimeLab cache unless something was written since the last call
+        mStatsRequest = CrimeLab.getInstance(getActivity()).getStatsAsync(
+                new CrimeLab.Callback<CrimeStats>() {
+                    @Override
+                    public void onResult(CrimeStats stats) {
+                        mStatsRequest = null;
+                        if (!isAdded() || !mSubtitleVisible) {
+                            return;
+                        }
+                        String crimes = getResources().getQuantityString(R.plurals.subtitle_plural,
+                                stats.getTotal(), stats.getTotal());
+                        setSubtitle(getString(R.string.subtitle_solved_format, crimes,
+                                stats.getSolved()));
+                    }
+                });
+    }
 
+    private void setSubtitle(CharSequence subtitle) {
         AppCompatActivity activity = (AppCompatActivity) getActivity();
         activity.getSupportActionBar().setSubtitle(subtitle);
     }
 
+    private boolean isSearching() {
+        return mSearchQuery != null && !mSearchQuery.isEmpty();
+    }
+
+    /**
+     * Поиск по мере ввода: запрос выполняется, когда ввод замирает на
+     * SEARCH_DEBOUNCE_MILLIS, а ответы на устаревшие запросы отбрасываются.
+     */
+    private void setSearchQuery(String text, boolean debounce) {
+        String query = text.trim();
+        if (query.equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        cancelSearch();
+        if (query.isEmpty()) {
+            showCrimes();
+        } else if (debounce) {
+            mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MILLIS);
+        } else {
+            runSearch();
+        }
+    }
+
+    private void runSearch() {
+        cancelSearch();
+        if (!isSearching()) {
+            return;
+        }
+        final String query = mSearchQuery;
+        mSearchRequest = searchAsync(query, 0, new CrimeLab.Callback<List<CrimeRow>>() {
+            @Override
+            public void onResult(List<CrimeRow> rows) {
+                if (!isAdded() || !query.equals(mSearchQuery)) {
+                    return;
+                }
+                mSearchRequest = null;
+                if (mSearchAdapter == null) {
+                    mSearchAdapter = new SearchAdapter();
+                }
+                mSearchAdapter.setResults(query, rows);
+                if (mCrimeRecyclerView.getAdapter() != mSearchAdapter) {
+                    mCrimeRecyclerView.setAdapter(mSearchAdapter);
+                }
+                setVisibility(rows.size());
+            }
+        });
+    }
+
+    // Search and row formatting both run on the db thread
+    private Future<List<CrimeRow>> searchAsync(final String query, final int offset,
+                                               CrimeLab.Callback<List<CrimeRow>> callback) {
+        final CrimeLab crimeLab = CrimeLab.getInstance(getActivity());
+        final CrimeRowFactory rowFactory = CrimeRowFactory.getInstance(getActivity());
+        return crimeLab.executeAsync(new Callable<List<CrimeRow>>() {
+            @Override
+            public List<CrimeRow> call() {
+                return rowFactory.createAll(crimeLab.search(query, offset, SEARCH_PAGE_SIZE));
+            }
+        }, callback);
+    }
+
+    private void cancelSearch() {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        if (mSearchRequest != null) {
+            mSearchRequest.cancel(false);
+            mSearchRequest = null;
+        }
+        if (mSearchAdapter != null) {
+            mSearchAdapter.cancelLoadMore();
+        }
+    }
+
+    private void stopSearch() {
+        mSearchQuery = null;
+        cancelSearch();
+        showCrimes();
+    }
+
+    private void showCrimes() {
+        mSearchAdapter = null;
+        if (mCrimeRecyclerView.getAdapter() != mAdapter) {
+            mCrimeRecyclerView.setAdapter(mAdapter);
+        }
+        setVisibility(mCrimes.size());
+    }
+
     private void initItemTouchHelper() {
         ItemTouchHelper.SimpleCallback callback = new ItemTouchHelper.SimpleCallback(
                 0, ItemTouchHelper.RIGHT) {
@@ -172,26 +468,60 @@ public class CrimeListFragment extends Fragment {
                 return false;
             }
 
+            @Override
+            public int getSwipeDirs(@NonNull RecyclerView recyclerView,
+                                    @NonNull RecyclerView.ViewHolder viewHolder) {
+                // Search results are read-only
+                return mSearchAdapter != null ? 0 : super.getSwipeDirs(recyclerView, viewHolder);
+            }
+
             @Override
             public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
                 mAdapter.swipeToDelete(viewHolder.getAdapterPosition());
-                updateUi();
+                setVisibility(mCrimes.size());
+                updateSubtitle();
             }
 
         };
         new ItemTouchHelper(callback).attachToRecyclerView(mCrimeRecyclerView);
     }
 
-    private class CrimeAdapter extends RecyclerView.Adapter<CrimeHolder> {
+    private class CrimeAdapter extends RecyclerView.Adapter<CrimeHolder>
+            implements CrimePagedList.Listener {
+
+        @Override
+        public void onCountChanged(int count) {
+            notifyDataSetChanged();
+            onSizeChanged();
+        }
 
-        private List<Crime> mCrimes;
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+            onSizeChanged();
+        }
 
-        public CrimeAdapter(List<Crime> mCrimes) {
-            this.mCrimes = mCrimes;
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+            onSizeChanged();
         }
 
-        public void setCrimes(List<Crime> mCrimes) {
-            this.mCrimes = mCrimes;
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+
+        private void onSizeChanged() {
+            if (mSearchAdapter == null) {
+                setVisibility(mCrimes.size());
+            }
+            updateSubtitle();
         }
 
         @NonNull
@@ -203,8 +533,7 @@ public class CrimeListFragment extends Fragment {
 
         @Override
         public void onBindViewHolder(@NonNull CrimeHolder holder, int position) {
-            Crime crime = mCrimes.get(position);
-            holder.bind(crime);
+            holder.bind(mCrimes.get(position));
         }
 
         @Override
@@ -218,19 +547,96 @@ public class CrimeListFragment extends Fragment {
         }
 
         public void swipeToDelete(int position) {
-            CrimeLab crimeLab = CrimeLab.getInstance(getActivity());
-            crimeLab.deleteCrime(mCrimes.get(position));
+            CrimeRow row = mCrimes.get(position);
+            if (row == null) {
+                // Нечего удалять, пока строка не загружена - возвращаем её на место
+                mAdapter.notifyItemChanged(position);
+                return;
+            }
+            Crime crime = row.getCrime();
+            mCrimes.remove(position);
+            CrimeWriteQueue.getInstance(getActivity()).discard(crime);
+            CrimeLab.getInstance(getActivity()).deleteCrimeAsync(crime, null);
             mAdapter.notifyItemRemoved(position);
-            mAdapter.notifyItemRangeChanged(position, crimeLab.getCrimes().size());
         }
     }
 
-    public class CrimeHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+    /**
+     * Результаты поиска, подгружаемые страницами по мере прокрутки.
+     */
+    private class SearchAdapter extends RecyclerView.Adapter<CrimeHolder> {
+
+        private final List<CrimeRow> mResults = new ArrayList<>();
+        private String mQuery;
+        private boolean mHasMore;
+        private Future<List<CrimeRow>> mLoadMoreRequest;
+
+        public void setResults(String query, List<CrimeRow> rows) {
+            cancelLoadMore();
+            mQuery = query;
+            mResults.clear();
+            mResults.addAll(rows);
+            mHasMore = rows.size() == SEARCH_PAGE_SIZE;
+            notifyDataSetChanged();
+        }
 
-        private TextView mTitleTextView;
-        private TextView mDateTextView;
-        private ImageView mSolvedImageView;
-        private Crime mCrime;
+        public void cancelLoadMore() {
+            if (mLoadMoreRequest != null) {
+                mLoadMoreRequest.cancel(false);
+                mLoadMoreRequest = null;
+            }
+        }
+
+        private void loadMore() {
+            final String query = mQuery;
+            mLoadMoreRequest = searchAsync(query, mResults.size(),
+                    new CrimeLab.Callback<List<CrimeRow>>() {
+                        @Override
+                        public void onResult(List<CrimeRow> rows) {
+                            mLoadMoreRequest = null;
+                            if (!query.equals(mQuery)) {
+                                return;
+                            }
+                            int start = mResults.size();
+                            mResults.addAll(rows);
+                            mHasMore = rows.size() == SEARCH_PAGE_SIZE;
+                            notifyItemRangeInserted(start, rows.size());
+                        }
+                    });
+        }
+
+        @NonNull
+        @Override
+        public CrimeHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            LayoutInflater layoutInflater = LayoutInflater.from(getActivity());
+            return new CrimeHolder(layoutInflater, parent);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull CrimeHolder holder, int position) {
+            holder.bind(mResults.get(position));
+            if (mHasMore && mLoadMoreRequest == null
+                    && position >= mResults.size() - SEARCH_PREFETCH_DISTANCE) {
+                loadMore();
+            }
+        }
+
+        @Override
+        public int getItemCount() {
+            return mResults.size();
+        }
+    }
+
+    public class CrimeHolder extends RecyclerView.ViewHolder
+            implements View.OnClickListener, CrimeRowView {
+
+        private final TextView mTitleTextView;
+        private final TextView mDateTextView;
+        private final ImageView mSolvedImageView;
+        private final ImageView mThumbnailView;
+        private final PhotoLoader mPhotoLoader;
+        private final int mThumbnailSize;
+        private CrimeRow mRow;
 
         public CrimeHolder(LayoutInflater inflater, ViewGroup parent) {
             super(inflater.inflate(R.layout.list_item_crime, parent, false));
@@ -238,20 +644,60 @@ public class CrimeListFragment extends Fragment {
             mTitleTextView = itemView.findViewById(R.id.crime_item_title);
             mDateTextView = itemView.findViewById(R.id.crime_item_date);
             mSolvedImageView = itemView.findViewById(R.id.crime_solved);
+            mThumbnailView = itemView.findViewById(R.id.crime_item_thumbnail);
+            mPhotoLoader = PhotoLoader.getInstance(getActivity());
+            mThumbnailSize = getResources().getDimensionPixelSize(R.dimen.list_thumbnail_size);
+        }
+
+        public void bind(CrimeRow row) {
+            long start = BIND.start();
+            try {
+                mRow = row;
+                if (mRow == null) {
+                    // Страница ещё загружается
+                    setTitle(null);
+                    setDate(null);
+                    setSolved(false);
+                    setThumbnail(null);
+                    return;
+                }
+                mRow.bindTo(this);
+            } finally {
+                BIND.stop(start);
+            }
         }
 
-        public void bind(Crime crime) {
-            mCrime = crime;
-            mTitleTextView.setText(mCrime.getTitle());
-            String formatStr = getResources().getString(R.string.date_format);
-            DateFormat dateFormat = new SimpleDateFormat(formatStr, Locale.getDefault());
-            mDateTextView.setText(dateFormat.format(mCrime.getDate()));
-            mSolvedImageView.setVisibility(mCrime.isSolved() ? VISIBLE : GONE);
+        @Override
+        public void setTitle(String title) {
+            mTitleTextView.setText(title);
+        }
+
+        @Override
+        public void setDate(String date) {
+            mDateTextView.setText(date);
+        }
+
+        @Override
+        public void setSolved(boolean solved) {
+            mSolvedImageView.setVisibility(solved ? VISIBLE : GONE);
+        }
+
+        @Override
+        public void setThumbnail(File thumbnailFile) {
+            if (thumbnailFile == null) {
+                mPhotoLoader.cancel(mThumbnailView);
+                mThumbnailView.setImageDrawable(null);
+            } else {
+                mPhotoLoader.load(mThumbnailView, thumbnailFile, mThumbnailSize, mThumbnailSize, 0);
+            }
         }
 
         @Override
         public void onClick(View view) {
-            mCallbacks.onCrimeSelected(mCrime);
+            if (mRow == null) {
+                return;
+            }
+            mCallbacks.onCrimeSelected(mRow.getCrime());
         }
     }
 }
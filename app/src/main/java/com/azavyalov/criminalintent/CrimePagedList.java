@@ -0,0 +1,487 @@
+package com.azavyalov.criminalintent;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Окно загруженных страниц списка преступлений. Держит в памяти не больше
+ * MAX_PAGES страниц рядом с текущей позицией прокрутки, остальные вытесняются,
+ * поэтому расход памяти не зависит от размера таблицы.
+ * Все методы вызываются из главного потока.
+ */
+public class CrimePagedList {
+
+    public static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 6;
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    // Diffs are computed off the main thread, one at a time
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Загруженные страницы приходят как onChanged, изменения после refresh -
+     * как точечные вставки, удаления и перемещения.
+     */
+    public interface Listener extends ListUpdateCallback {
+        // Structural change that can't be described item by item
+        void onCountChanged(int count);
+    }
+
+    private final CrimeLab mCrimeLab;
+    private final CrimeRowFactory mRowFactory;
+    private final Listener mListener;
+    private final ArrayDeque<CrimePage> mPages = new ArrayDeque<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Rows already removed by remove(); their DELETED events are expected
+    private final Set<UUID> mRemovedIds = new HashSet<>();
+
+    private CrimeQuery mQuery = CrimeQuery.ALL;
+    private int mCount;
+    private int mWindowStart;
+    private int mWindowSize;
+    private int mLastRequestedPosition;
+    private Future<?> mLoadRequest;
+    private boolean mDiffing;
+    private int mGeneration;
+
+    public CrimePagedList(CrimeLab crimeLab, CrimeRowFactory rowFactory, Listener listener) {
+        mCrimeLab = crimeLab;
+        mRowFactory = rowFactory;
+        mListener = listener;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public CrimeQuery getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Меняет фильтр или порядок. Окно сбрасывается: позиции старой
+     * выборки ничего не значат в новой.
+     */
+    public void setQuery(CrimeQuery query) {
+        if (query.equals(mQuery)) {
+            return;
+        }
+        mQuery = query;
+        cancelLoad();
+        mPages.clear();
+        mWindowStart = 0;
+        mWindowSize = 0;
+        mLastRequestedPosition = 0;
+        refresh();
+    }
+
+    /**
+     * Возвращает строку или null, если её страница ещё не загружена.
+     * Загрузка нужной страницы запускается автоматически.
+     */
+    public CrimeRow get(int position) {
+        mLastRequestedPosition = position;
+        CrimeRow row = null;
+        if (position >= mWindowStart && position < mWindowStart + mWindowSize) {
+            row = findInWindow(position - mWindowStart);
+        }
+        loadAround(position);
+        return row;
+    }
+
+    /**
+     * Перечитывает количество строк и текущее окно. Новое окно сравнивается
+     * со старым в фоне, и адаптер получает только реальные изменения.
+     */
+    public void refresh() {
+        cancelLoad();
+        final int generation = mGeneration;
+        mLoadRequest = mCrimeLab.getCrimeCountAsync(mQuery, new CrimeLab.Callback<Integer>() {
+            @Override
+            public void onResult(Integer count) {
+                mLoadRequest = null;
+                if (mPages.isEmpty() || count == 0) {
+                    reset(count);
+                } else {
+                    reloadWindow(count, generation);
+                }
+            }
+        });
+    }
+
+    private void reset(int count) {
+        mCount = count;
+        mPages.clear();
+        mWindowStart = 0;
+        mWindowSize = 0;
+        mLastRequestedPosition = Math.max(0, Math.min(mLastRequestedPosition, count - 1));
+        mListener.onCountChanged(count);
+        loadAround(mLastRequestedPosition);
+    }
+
+    private void reloadWindow(final int count, final int generation) {
+        final int windowStart = mWindowStart;
+        final List<Crime> oldWindow = new ArrayList<>(mWindowSize);
+        for (CrimePage page : mPages) {
+            oldWindow.addAll(page.getCrimes());
+        }
+        // No page loads while the window is being replaced
+        mDiffing = true;
+        mLoadRequest = loadPage(new PageRead() {
+                    @Override
+                    CrimePage read(CrimeQuery query) {
+                        return mCrimeLab.getCrimesPageAt(query, windowStart,
+                                Math.max(oldWindow.size(), PAGE_SIZE));
+                    }
+                },
+                new CrimeLab.Callback<CrimePage>() {
+                    @Override
+                    public void onResult(final CrimePage page) {
+                        mLoadRequest = null;
+                        DIFF_EXECUTOR.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                                        new CrimeDiffCallback(oldWindow, page.getCrimes()));
+                                mMainHandler.post(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        if (generation == mGeneration) {
+                                            applyWindow(windowStart, oldWindow.size(), page,
+                                                    count, diff);
+                                        }
+                                    }
+                                });
+                            }
+                        });
+                    }
+                });
+    }
+
+    private void applyWindow(int windowStart, int oldWindowSize, CrimePage page, int count,
+                             DiffUtil.DiffResult diff) {
+        mDiffing = false;
+        int oldCount = mCount;
+        mCount = count;
+        mPages.clear();
+        mWindowStart = windowStart;
+        mWindowSize = page.size();
+        if (!page.isEmpty()) {
+            mPages.add(page);
+        }
+
+        // Rows that changed outside the window can only be placed when they're after it
+        int outside = count - oldCount - (page.size() - oldWindowSize);
+        if (outside != 0 && windowStart > 0) {
+            mListener.onCountChanged(count);
+        } else {
+            diff.dispatchUpdatesTo(new OffsetCallback(windowStart));
+            int windowEnd = windowStart + page.size();
+            if (outside > 0) {
+                mListener.onInserted(windowEnd, outside);
+            } else if (outside < 0) {
+                mListener.onRemoved(windowEnd, -outside);
+            }
+        }
+        loadAround(mLastRequestedPosition);
+    }
+
+    /**
+     * Удаляет строку из окна без перезагрузки, например после свайпа.
+     */
+    public Crime remove(int position) {
+        Crime removed = null;
+        if (position >= mWindowStart && position < mWindowStart + mWindowSize) {
+            int index = position - mWindowStart;
+            for (CrimePage page : mPages) {
+                if (index < page.size()) {
+                    removed = page.remove(index);
+                    mRemovedIds.add(removed.getId());
+                    break;
+                }
+                index -= page.size();
+            }
+            mWindowSize--;
+        } else if (position < mWindowStart) {
+            mWindowStart--;
+        }
+        mCount--;
+        return removed;
+    }
+
+    public void release() {
+        cancelLoad();
+    }
+
+    /**
+     * Применяет изменение одной строки к окну. Обновления и удаления внутри
+     * окна, а также вставки в конец списка обходятся без запроса к БД;
+     * остальное приводит к refresh().
+     */
+    public void applyChange(CrimeChange change) {
+        if (mDiffing) {
+            // The window is about to be replaced; reload it once more instead
+            if (change.getType() == CrimeChange.Type.DELETED) {
+                mRemovedIds.remove(change.getId());
+            }
+            refresh();
+            return;
+        }
+        switch (change.getType()) {
+            case UPDATED:
+                applyUpdate(change);
+                break;
+            case INSERTED:
+                applyInsert(change);
+                break;
+            case DELETED:
+                applyDelete(change);
+                break;
+        }
+    }
+
+    private void applyUpdate(CrimeChange change) {
+        if (change.hasChanged(mQuery.getAffectedFields())) {
+            // The row may have moved to another position or left the selection
+            refresh();
+            return;
+        }
+        int index = 0;
+        for (CrimePage page : mPages) {
+            List<Crime> crimes = page.getCrimes();
+            for (int i = 0; i < crimes.size(); i++, index++) {
+                if (crimes.get(i).getId().equals(change.getId())) {
+                    Crime snapshot = new Crime(change.getCrime());
+                    // A single row; formatting it here is cheaper than a background round trip
+                    page.set(i, snapshot, mRowFactory.create(snapshot));
+                    mListener.onChanged(mWindowStart + index, 1, null);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void applyInsert(CrimeChange change) {
+        Crime crime = change.getCrime();
+        if (!mQuery.matches(crime)) {
+            return;
+        }
+        int windowEnd = mWindowStart + mWindowSize;
+        if (mLoadRequest != null || mPages.isEmpty() || windowEnd != mCount) {
+            refresh();
+            return;
+        }
+        CrimePage lastPage = mPages.getLast();
+        CrimePage.Key key = mQuery.getKey(crime, change.getRowId());
+        if (mQuery.compare(key, lastPage.getLastKey()) <= 0) {
+            refresh();
+            return;
+        }
+        Crime snapshot = new Crime(crime);
+        lastPage.append(snapshot, mRowFactory.create(snapshot), key);
+        mWindowSize++;
+        mCount++;
+        mListener.onInserted(windowEnd, 1);
+    }
+
+    private void applyDelete(CrimeChange change) {
+        if (mRemovedIds.remove(change.getId())) {
+            return;
+        }
+        int index = 0;
+        for (CrimePage page : mPages) {
+            List<Crime> crimes = page.getCrimes();
+            for (int i = 0; i < crimes.size(); i++, index++) {
+                if (crimes.get(i).getId().equals(change.getId())) {
+                    page.remove(i);
+                    mWindowSize--;
+                    mCount--;
+                    mListener.onRemoved(mWindowStart + index, 1);
+                    return;
+                }
+            }
+        }
+        // Deleted outside the window, its position is unknown
+        refresh();
+    }
+
+    // Shifts window-relative diff positions to adapter positions
+    private class OffsetCallback implements ListUpdateCallback {
+
+        private final int mOffset;
+
+        OffsetCallback(int offset) {
+            mOffset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mListener.onInserted(position + mOffset, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mListener.onRemoved(position + mOffset, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mListener.onMoved(fromPosition + mOffset, toPosition + mOffset);
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            mListener.onChanged(position + mOffset, count, payload);
+        }
+    }
+
+    private CrimeRow findInWindow(int index) {
+        for (CrimePage page : mPages) {
+            if (index < page.size()) {
+                return page.getRows().get(index);
+            }
+            index -= page.size();
+        }
+        return null;
+    }
+
+    private void loadAround(int position) {
+        if (mLoadRequest != null || mDiffing || mCount == 0) {
+            return;
+        }
+        int windowEnd = mWindowStart + mWindowSize;
+        if (mPages.isEmpty()
+                || position < mWindowStart - PAGE_SIZE
+                || position >= windowEnd + PAGE_SIZE) {
+            loadAt(Math.max(0, position - PAGE_SIZE / 2));
+        } else if (position >= windowEnd - PREFETCH_DISTANCE && windowEnd < mCount) {
+            loadAfter();
+        } else if (position < mWindowStart + PREFETCH_DISTANCE && mWindowStart > 0) {
+            loadBefore();
+        }
+    }
+
+    private void loadAt(final int position) {
+        mLoadRequest = loadPage(new PageRead() {
+                    @Override
+                    CrimePage read(CrimeQuery query) {
+                        return mCrimeLab.getCrimesPageAt(query, position, PAGE_SIZE);
+                    }
+                },
+                new CrimeLab.Callback<CrimePage>() {
+                    @Override
+                    public void onResult(CrimePage page) {
+                        mLoadRequest = null;
+                        mPages.clear();
+                        mWindowStart = position;
+                        mWindowSize = 0;
+                        if (page.isEmpty()) {
+                            return;
+                        }
+                        mPages.add(page);
+                        mWindowSize = page.size();
+                        mListener.onChanged(position, page.size(), null);
+                        loadAround(mLastRequestedPosition);
+                    }
+                });
+    }
+
+    private void loadAfter() {
+        final CrimePage.Key lastKey = mPages.getLast().getLastKey();
+        mLoadRequest = loadPage(new PageRead() {
+                    @Override
+                    CrimePage read(CrimeQuery query) {
+                        return mCrimeLab.getCrimesPageAfter(query, lastKey, PAGE_SIZE);
+                    }
+                },
+                new CrimeLab.Callback<CrimePage>() {
+                    @Override
+                    public void onResult(CrimePage page) {
+                        mLoadRequest = null;
+                        if (page.isEmpty()) {
+                            return;
+                        }
+                        int positionStart = mWindowStart + mWindowSize;
+                        mPages.addLast(page);
+                        mWindowSize += page.size();
+                        while (mPages.size() > MAX_PAGES) {
+                            CrimePage evicted = mPages.removeFirst();
+                            mWindowStart += evicted.size();
+                            mWindowSize -= evicted.size();
+                        }
+                        mListener.onChanged(positionStart, page.size(), null);
+                        loadAround(mLastRequestedPosition);
+                    }
+                });
+    }
+
+    private void loadBefore() {
+        final CrimePage.Key firstKey = mPages.getFirst().getFirstKey();
+        mLoadRequest = loadPage(new PageRead() {
+                    @Override
+                    CrimePage read(CrimeQuery query) {
+                        return mCrimeLab.getCrimesPageBefore(query, firstKey, PAGE_SIZE);
+                    }
+                },
+                new CrimeLab.Callback<CrimePage>() {
+                    @Override
+                    public void onResult(CrimePage page) {
+                        mLoadRequest = null;
+                        if (page.isEmpty()) {
+                            return;
+                        }
+                        mPages.addFirst(page);
+                        mWindowStart = Math.max(0, mWindowStart - page.size());
+                        mWindowSize += page.size();
+                        while (mPages.size() > MAX_PAGES) {
+                            CrimePage evicted = mPages.removeLast();
+                            mWindowSize -= evicted.size();
+                        }
+                        mListener.onChanged(mWindowStart, page.size(), null);
+                        loadAround(mLastRequestedPosition);
+                    }
+                });
+    }
+
+    // Reads a page and formats its rows on the db thread, so binding does neither
+    private abstract static class PageRead {
+        abstract CrimePage read(CrimeQuery query);
+    }
+
+    private Future<CrimePage> loadPage(final PageRead pageRead,
+                                       CrimeLab.Callback<CrimePage> callback) {
+        final CrimeQuery query = mQuery;
+        return mCrimeLab.executeAsync(new Callable<CrimePage>() {
+            @Override
+            public CrimePage call() {
+                CrimePage page = pageRead.read(query);
+                page.setRows(mRowFactory.createAll(page.getCrimes()));
+                return page;
+            }
+        }, callback);
+    }
+
+    private void cancelLoad() {
+        mGeneration++;
+        mDiffing = false;
+        if (mLoadRequest != null) {
+            mLoadRequest.cancel(false);
+            mLoadRequest = null;
+        }
+    }
+}
@@ -14,18 +14,48 @@ import androidx.fragment.app.FragmentManager;
 import androidx.fragment.app.FragmentStatePagerAdapter;
 import androidx.viewpager.widget.ViewPager;
 
-import java.util.List;
+import com.azavyalov.criminalintent.metrics.FrameTracker;
+
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 public class CrimePagerActivity extends AppCompatActivity implements CrimeFragment.Callbacks {
 
     public static final String EXTRA_CRIME_ID = "com.azavyalov.criminalintent.crime_id";
 
-    private List<Crime> mCrimes;
+    private CrimeIdList mCrimeIds;
+    private Future<CrimeIdList> mCrimeIdsRequest;
     private ViewPager mViewPager;
+    private CrimePrefetcher mPrefetcher;
+    private FrameTracker mFrameTracker;
     private Button firstPageButton;
     private Button lastPageButton;
 
+    private final CrimeLab.CrimeObserver mCrimeObserver = new CrimeLab.CrimeObserver() {
+        @Override
+        public void onCrimeChanged(CrimeChange change) {
+            if (mCrimeIdsRequest != null) {
+                // The pending load already sees this change
+                return;
+            }
+            if (change.getType() == CrimeChange.Type.INSERTED) {
+                mCrimeIds.insert(change.getId(), change.getCrime().getDate().getTime());
+                mViewPager.getAdapter().notifyDataSetChanged();
+            } else if (change.getType() == CrimeChange.Type.DELETED) {
+                if (mCrimeIds.remove(change.getId()) != -1) {
+                    mViewPager.getAdapter().notifyDataSetChanged();
+                }
+            } else if (change.getType() == CrimeChange.Type.UPDATED
+                    && (change.getChangedFields() & CrimeChange.FIELD_DATE) != 0) {
+                // The pages are in date order; the pager keeps the current page on its crime
+                if (mCrimeIds.remove(change.getId()) != -1) {
+                    mCrimeIds.insert(change.getId(), change.getCrime().getDate().getTime());
+                    mViewPager.getAdapter().notifyDataSetChanged();
+                }
+            }
+        }
+    };
+
     public static Intent newIntent(Context context, UUID crimeId) {
         Intent intent = new Intent(context, CrimePagerActivity.class);
         intent.putExtra(EXTRA_CRIME_ID, crimeId);
@@ -37,30 +67,59 @@ public class CrimePagerActivity extends AppCompatActivity implements CrimeFragme
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_crime_pager);
 
+        // The requested crime is shown right away; its neighbours appear once the ids are loaded
+        UUID crimeId = (UUID) getIntent().getSerializableExtra(EXTRA_CRIME_ID);
+        mCrimeIds = CrimeIdList.singleton(crimeId);
+
         mViewPager = findViewById(R.id.crime_view_pager);
-        mCrimes = CrimeLab.getInstance(this).getCrimes();
+        mPrefetcher = new CrimePrefetcher(this, mViewPager.getOffscreenPageLimit());
+        mFrameTracker = new FrameTracker(this, "CrimePager");
         FragmentManager fm = getSupportFragmentManager();
         mViewPager.setAdapter(new FragmentStatePagerAdapter(fm) {
             @NonNull
             @Override
             public Fragment getItem(int position) {
-                Crime crime = mCrimes.get(position);
-                return CrimeFragment.newInstance(crime.getId());
+                UUID crimeId = mCrimeIds.get(position);
+                mPrefetcher.onPageCreated(crimeId);
+                return CrimeFragment.newInstance(crimeId);
             }
 
             @Override
             public int getCount() {
-                return mCrimes.size();
+                return mCrimeIds.size();
+            }
+
+            @Override
+            public int getItemPosition(@NonNull Object object) {
+                int position = mCrimeIds.indexOf(((CrimeFragment) object).getCrimeId());
+                return position == -1 ? POSITION_NONE : position;
             }
         });
+        mViewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+            @Override
+            public void onPageSelected(int position) {
+                mPrefetcher.onPageSelected(position);
+            }
 
-        UUID crimeId = (UUID) getIntent().getSerializableExtra(EXTRA_CRIME_ID);
-        for (int i = 0; i < mCrimes.size(); i++) {
-            if (mCrimes.get(i).getId().equals(crimeId)) {
-                mViewPager.setCurrentItem(i);
-                break;
+            @Override
+            public void onPageScrollStateChanged(int state) {
+                if (state == ViewPager.SCROLL_STATE_IDLE) {
+                    mFrameTracker.stop();
+                } else {
+                    mFrameTracker.start();
+                }
             }
-        }
+        });
+        CrimeLab.getInstance(this).registerObserver(mCrimeObserver);
+
+        mCrimeIdsRequest = CrimeLab.getInstance(this)
+                .getCrimeIdsAsync(new CrimeLab.Callback<CrimeIdList>() {
+                    @Override
+                    public void onResult(CrimeIdList crimeIds) {
+                        mCrimeIdsRequest = null;
+                        showCrimes(crimeIds);
+                    }
+                });
 
         // Challenge 11.2
         prepareFirstPageButton();
@@ -68,12 +127,38 @@ public class CrimePagerActivity extends AppCompatActivity implements CrimeFragme
 
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        CrimeLab.getInstance(this).unregisterObserver(mCrimeObserver);
+        if (mCrimeIdsRequest != null) {
+            mCrimeIdsRequest.cancel(false);
+            mCrimeIdsRequest = null;
+        }
+        mPrefetcher.release();
+        mFrameTracker.stop();
+        mFrameTracker.flush();
+    }
+
+    private void showCrimes(CrimeIdList crimeIds) {
+        UUID currentId = mCrimeIds.get(mViewPager.getCurrentItem());
+        mCrimeIds = crimeIds;
+        mViewPager.getAdapter().notifyDataSetChanged();
+
+        int position = mCrimeIds.indexOf(currentId);
+        if (position != -1) {
+            mViewPager.setCurrentItem(position, false);
+        }
+        mPrefetcher.setCrimeIds(crimeIds);
+        mPrefetcher.onPageSelected(mViewPager.getCurrentItem());
+    }
+
     private void prepareLastPageButton() {
         lastPageButton = findViewById(R.id.last_page_button);
         lastPageButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                mViewPager.setCurrentItem(mCrimes.size() - 1);
+                mViewPager.setCurrentItem(mCrimeIds.size() - 1);
             }
         });
     }
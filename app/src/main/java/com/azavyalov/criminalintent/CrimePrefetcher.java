@@ -0,0 +1,268 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+
+import com.azavyalov.criminalintent.metrics.Histogram;
+import com.azavyalov.criminalintent.metrics.Metrics;
+import com.azavyalov.criminalintent.photo.PhotoCache;
+import com.azavyalov.criminalintent.photo.PhotoLoader;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Future;
+
+/**
+ * Заранее загружает преступления и фотографии страниц пейджера по направлению
+ * листания, чтобы новый CrimeFragment нашёл всё в кешах. Предзагрузки вне
+ * текущего окна отменяются, а фотографии держатся в пределах бюджета памяти.
+ * Счётчики за сессию пейджера попадают в Metrics при release().
+ * Все методы вызываются из главного потока.
+ */
+public class CrimePrefetcher {
+
+    private static final int DEFAULT_DISTANCE = 2;
+    // One record per pager session
+    private static final Histogram HITS = Metrics.histogram("CrimePrefetcher.hits");
+    private static final Histogram LATE = Metrics.histogram("CrimePrefetcher.late");
+    private static final Histogram MISSES = Metrics.histogram("CrimePrefetcher.misses");
+    private static final Histogram ISSUED = Metrics.histogram("CrimePrefetcher.issued");
+    private static final Histogram CANCELLED = Metrics.histogram("CrimePrefetcher.cancelled");
+    private static final Histogram OVER_BUDGET = Metrics.histogram("CrimePrefetcher.overBudget");
+    private static final Histogram HIT_PERCENT = Metrics.histogram("CrimePrefetcher.hitPercent");
+
+    private final CrimeLab mCrimeLab;
+    private final PhotoLoader mPhotoLoader;
+    private final PhotoCache mPhotoCache;
+    private final int mPhotoSize;
+    private final int mOffscreenPageLimit;
+    private final long mBudgetBytes;
+    private int mDistance = DEFAULT_DISTANCE;
+
+    private CrimeIdList mCrimeIds;
+    private int mLastPosition = -1;
+    private boolean mForward = true;
+    private final Map<UUID, Prefetch> mPrefetches = new HashMap<>();
+    private long mReservedBytes;
+
+    private long mIssuedCount;
+    private long mCancelledCount;
+    private long mOverBudgetCount;
+    private long mHitCount;
+    private long mLateCount;
+    private long mMissCount;
+
+    /**
+     * offscreenPageLimit - сколько страниц по бокам ViewPager и так держит
+     * созданными; предзагрузка идёт дальше них.
+     */
+    public CrimePrefetcher(Context context, int offscreenPageLimit) {
+        Context appContext = context.getApplicationContext();
+        mCrimeLab = CrimeLab.getInstance(appContext);
+        mPhotoLoader = PhotoLoader.getInstance(appContext);
+        mPhotoCache = PhotoCache.getInstance(appContext);
+        // Matches the measured size of the photo view, so the fragment hits the same cache entry
+        mPhotoSize = appContext.getResources().getDimensionPixelSize(R.dimen.crime_photo_size);
+        mOffscreenPageLimit = offscreenPageLimit;
+        mBudgetBytes = Runtime.getRuntime().maxMemory() / 32;
+    }
+
+    /**
+     * Сколько страниц за пределами offscreenPageLimit загружать по ходу листания.
+     */
+    public void setDistance(int distance) {
+        mDistance = distance;
+    }
+
+    public void setCrimeIds(CrimeIdList crimeIds) {
+        mCrimeIds = crimeIds;
+        mLastPosition = -1;
+    }
+
+    /**
+     * Вызывается при выборе страницы: пересчитывает окно предзагрузки и
+     * отменяет то, что в него больше не входит.
+     */
+    public void onPageSelected(int position) {
+        if (mCrimeIds == null) {
+            return;
+        }
+        if (mLastPosition != -1 && position != mLastPosition) {
+            mForward = position > mLastPosition;
+        }
+        mLastPosition = position;
+
+        int ahead = mOffscreenPageLimit + mDistance;
+        int behind = mOffscreenPageLimit;
+        int step = mForward ? 1 : -1;
+        // Nearest pages first, so they get the budget
+        Set<UUID> window = new HashSet<>();
+        for (int distance = 1; distance <= Math.max(ahead, behind); distance++) {
+            if (distance <= ahead) {
+                addToWindow(window, position + step * distance);
+            }
+            if (distance <= behind) {
+                addToWindow(window, position - step * distance);
+            }
+        }
+
+        Iterator<Map.Entry<UUID, Prefetch>> iterator = mPrefetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Prefetch prefetch = iterator.next().getValue();
+            if (!window.contains(prefetch.mId)) {
+                cancel(prefetch);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Вызывается, когда пейджер создаёт фрагмент страницы; учитывается в
+     * статистике попаданий.
+     */
+    public void onPageCreated(UUID crimeId) {
+        Prefetch prefetch = mPrefetches.get(crimeId);
+        if (prefetch == null) {
+            mMissCount++;
+        } else if (prefetch.isWarm()) {
+            mHitCount++;
+        } else {
+            mLateCount++;
+        }
+    }
+
+    public void release() {
+        for (Prefetch prefetch : mPrefetches.values()) {
+            cancel(prefetch);
+        }
+        mPrefetches.clear();
+        recordMetrics();
+    }
+
+    private void recordMetrics() {
+        if (!Metrics.isEnabled()) {
+            return;
+        }
+        HITS.record(mHitCount);
+        LATE.record(mLateCount);
+        MISSES.record(mMissCount);
+        ISSUED.record(mIssuedCount);
+        CANCELLED.record(mCancelledCount);
+        OVER_BUDGET.record(mOverBudgetCount);
+        if (mHitCount + mLateCount + mMissCount > 0) {
+            HIT_PERCENT.record(Math.round(getHitRate() * 100));
+        }
+    }
+
+    private void addToWindow(Set<UUID> window, int position) {
+        if (position < 0 || position >= mCrimeIds.size()) {
+            return;
+        }
+        UUID id = mCrimeIds.get(position);
+        window.add(id);
+        if (!mPrefetches.containsKey(id)) {
+            mPrefetches.put(id, start(id));
+        }
+    }
+
+    private Prefetch start(UUID id) {
+        final Prefetch prefetch = new Prefetch(id);
+        mIssuedCount++;
+        Crime cached = mCrimeLab.peekCrime(id);
+        if (cached != null) {
+            onCrimeLoaded(prefetch, cached);
+        } else {
+            prefetch.mCrimeRequest = mCrimeLab.getCrimeAsync(id, new CrimeLab.Callback<Crime>() {
+                @Override
+                public void onResult(Crime crime) {
+                    prefetch.mCrimeRequest = null;
+                    onCrimeLoaded(prefetch, crime);
+                }
+            });
+        }
+        return prefetch;
+    }
+
+    private void onCrimeLoaded(Prefetch prefetch, Crime crime) {
+        prefetch.mCrimeLoaded = true;
+        if (crime == null || !crime.hasPhoto()) {
+            return;
+        }
+        // RGB_565, scaled to fit the square photo view
+        int bytes = mPhotoSize * mPhotoSize * 2;
+        if (mReservedBytes + bytes > mBudgetBytes) {
+            mOverBudgetCount++;
+            return;
+        }
+        mReservedBytes += bytes;
+        prefetch.mPhotoBytes = bytes;
+        // Every photo taken since thumbnails were introduced has a preview; older ones are missed
+        prefetch.mPhotoFile = mCrimeLab.getPreviewFile(crime);
+        mPhotoLoader.prefetch(prefetch.mPhotoFile, mPhotoSize, mPhotoSize);
+    }
+
+    private void cancel(Prefetch prefetch) {
+        if (prefetch.mCrimeRequest != null) {
+            prefetch.mCrimeRequest.cancel(false);
+            prefetch.mCrimeRequest = null;
+            mCancelledCount++;
+        }
+        if (prefetch.mPhotoFile != null) {
+            mPhotoLoader.cancelPrefetch(prefetch.mPhotoFile, mPhotoSize, mPhotoSize);
+        }
+        mReservedBytes -= prefetch.mPhotoBytes;
+        prefetch.mPhotoBytes = 0;
+    }
+
+    public long getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    public long getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    public long getOverBudgetCount() {
+        return mOverBudgetCount;
+    }
+
+    public long getHitCount() {
+        return mHitCount;
+    }
+
+    // Prefetch was issued but had not finished when the page was created
+    public long getLateCount() {
+        return mLateCount;
+    }
+
+    public long getMissCount() {
+        return mMissCount;
+    }
+
+    public float getHitRate() {
+        long total = mHitCount + mLateCount + mMissCount;
+        return total == 0 ? 0f : (float) mHitCount / total;
+    }
+
+    private class Prefetch {
+
+        private final UUID mId;
+        private Future<Crime> mCrimeRequest;
+        private boolean mCrimeLoaded;
+        private File mPhotoFile;
+        private int mPhotoBytes;
+
+        private Prefetch(UUID id) {
+            mId = id;
+        }
+
+        private boolean isWarm() {
+            return mCrimeLoaded && (mPhotoFile == null
+                    || mPhotoCache.getFromMemory(mPhotoFile, mPhotoSize, mPhotoSize) != null);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.azavyalov.criminalintent;
+
+import android.content.Context;
+
+import java.io.File;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Строит CrimeRow для списка. Формат даты создаётся один раз на локаль и
+ * переиспользуется; вызывается из потока БД при загрузке страниц и из
+ * главного потока для единичных изменений.
+ */
+public class CrimeRowFactory {
+
+    private static CrimeRowFactory sCrimeRowFactory;
+
+    private final Context mContext;
+    private final CrimeLab mCrimeLab;
+    // SimpleDateFormat is not thread-safe; guarded by this
+    private final Map<Locale, DateFormat> mDateFormats = new HashMap<>();
+
+    public static synchronized CrimeRowFactory getInstance(Context context) {
+        if (sCrimeRowFactory == null) {
+            sCrimeRowFactory = new CrimeRowFactory(context.getApplicationContext());
+        }
+        return sCrimeRowFactory;
+    }
+
+    private CrimeRowFactory(Context context) {
+        mContext = context;
+        mCrimeLab = CrimeLab.getInstance(context);
+    }
+
+    public synchronized CrimeRow create(Crime crime) {
+        String date = getDateFormat().format(crime.getDate());
+        // Only the small copy made at capture time is shown in the list
+        File thumbnail = crime.hasPhoto() ? mCrimeLab.getThumbnailFile(crime) : null;
+        return new CrimeRow(crime, date, thumbnail);
+    }
+
+    public List<CrimeRow> createAll(List<Crime> crimes) {
+        List<CrimeRow> rows = new ArrayList<>(crimes.size());
+        for (Crime crime : crimes) {
+            rows.add(create(crime));
+        }
+        return rows;
+    }
+
+    private DateFormat getDateFormat() {
+        Locale locale = Locale.getDefault();
+        DateFormat dateFormat = mDateFormats.get(locale);
+        if (dateFormat == null) {
+            // The pattern is localized too, so it is read again for a new locale
+            String pattern = mContext.getResources().getString(R.string.date_format);
+            dateFormat = new SimpleDateFormat(pattern, locale);
+            mDateFormats.put(locale, dateFormat);
+        }
+        return dateFormat;
+    }
+}
@@ -0,0 +1,216 @@
+package com.azavyalov.criminalintent;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.azavyalov.criminalintent.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Future;
+
+/**
+ * Отложенная запись изменений преступлений. Правки одного преступления внутри
+ * окна склеиваются, а накопленное записывается одной транзакцией в потоке БД.
+ * Очередь сбрасывается по окончании окна, в CrimeFragment.onPause и при
+ * TRIM_MEMORY_UI_HIDDEN. Хука на завершение процесса нет: Android убивает
+ * процесс без него, поэтому правки должны уйти в БД до ухода с экрана.
+ */
+public class CrimeWriteQueue {
+
+    private static final long DEFAULT_WINDOW_MILLIS = 500;
+
+    private static CrimeWriteQueue sCrimeWriteQueue;
+
+    private final CrimeLab mCrimeLab;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<UUID, PendingWrite> mPending = new LinkedHashMap<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+
+    private long mSubmittedCount;
+    private long mCoalescedCount;
+    private long mWrittenCount;
+    private long mFlushCount;
+
+    /**
+     * Узнаёт о записанных в БД изменениях, вызывается в главном потоке.
+     */
+    public interface Listener {
+        void onCrimesWritten(Collection<Crime> crimes);
+    }
+
+    private final CrimeLab.Callback<Collection<Crime>> mWrittenCallback =
+            new CrimeLab.Callback<Collection<Crime>>() {
+                @Override
+                public void onResult(Collection<Crime> crimes) {
+                    for (Listener listener : new ArrayList<>(mListeners)) {
+                        listener.onCrimesWritten(crimes);
+                    }
+                }
+            };
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static synchronized CrimeWriteQueue getInstance(Context context) {
+        if (sCrimeWriteQueue == null) {
+            sCrimeWriteQueue = new CrimeWriteQueue(context);
+            sCrimeWriteQueue.registerMetrics();
+        }
+        return sCrimeWriteQueue;
+    }
+
+    private CrimeWriteQueue(Context context) {
+        Context appContext = context.getApplicationContext();
+        mCrimeLab = CrimeLab.getInstance(appContext);
+
+        // The app going to background is the last reliable point before the process may be killed
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                    flush();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                // nothing to do
+            }
+
+            @Override
+            public void onLowMemory() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Слушатели регистрируются и снимаются из главного потока.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public synchronized void setWindowMillis(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Ставит преступление в очередь на запись. Повторные правки того же
+     * преступления до сброса очереди записываются один раз, с объединением
+     * их масок. changedFields - маска CrimeChange.FIELD_*.
+     */
+    public synchronized void enqueue(Crime crime, int changedFields) {
+        mSubmittedCount++;
+        PendingWrite pending = mPending.get(crime.getId());
+        if (pending != null) {
+            mCoalescedCount++;
+        } else {
+            pending = new PendingWrite();
+            mPending.put(crime.getId(), pending);
+            if (mPending.size() == 1) {
+                mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+            }
+        }
+        pending.mCrime = crime;
+        pending.mChangedFields |= changedFields;
+    }
+
+    /**
+     * Убирает из очереди отложенную запись, например перед удалением.
+     */
+    public synchronized void discard(Crime crime) {
+        mPending.remove(crime.getId());
+    }
+
+    /**
+     * Немедленно отправляет накопленные изменения в поток БД. Запросы, сделанные
+     * после этого вызова, увидят записанные данные.
+     */
+    public Future<?> flush() {
+        List<Crime> batch;
+        int[] changedFields;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            if (mPending.isEmpty()) {
+                return null;
+            }
+            batch = new ArrayList<>(mPending.size());
+            changedFields = new int[mPending.size()];
+            for (PendingWrite pending : mPending.values()) {
+                changedFields[batch.size()] = pending.mChangedFields;
+                batch.add(pending.mCrime);
+            }
+            mPending.clear();
+            mWrittenCount += batch.size();
+            mFlushCount++;
+        }
+        return mCrimeLab.updateCrimesAsync(batch, changedFields, mWrittenCallback);
+    }
+
+    private void registerMetrics() {
+        Metrics.register("CrimeWriteQueue.submitted", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getSubmittedCount();
+            }
+        });
+        Metrics.register("CrimeWriteQueue.coalesced", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getCoalescedCount();
+            }
+        });
+        Metrics.register("CrimeWriteQueue.written", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getWrittenCount();
+            }
+        });
+        Metrics.register("CrimeWriteQueue.flushes", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getFlushCount();
+            }
+        });
+    }
+
+    public synchronized long getSubmittedCount() {
+        return mSubmittedCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public synchronized long getWrittenCount() {
+        return mWrittenCount;
+    }
+
+    public synchronized long getFlushCount() {
+        return mFlushCount;
+    }
+
+    // Latest instance of a crime and every field changed since the last flush
+    private static class PendingWrite {
+        private Crime mCrime;
+        private int mChangedFields;
+    }
+}
@@ -0,0 +1,47 @@
+package com.azavyalov.criminalintent;
+
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
+import androidx.fragment.app.DialogFragment;
+
+import com.azavyalov.criminalintent.metrics.Metrics;
+
+/**
+ * Отладочный отчёт Metrics: перцентили операций и счётчики кешей.
+ * Тот же отчёт пишется в Logcat.
+ */
+public class MetricsFragment extends DialogFragment {
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(@Nullable Bundle savedInstanceState) {
+
+        View v = LayoutInflater.
+                from(getActivity())
+                .inflate(R.layout.dialog_metrics, null);
+
+        TextView reportTextView = v.findViewById(R.id.dialog_metrics_report);
+        reportTextView.setText(Metrics.dump());
+        Metrics.log();
+
+        return new AlertDialog.Builder(getActivity())
+                .setView(v)
+                .setTitle(R.string.show_metrics)
+                .setPositiveButton(android.R.string.ok, null)
+                .setNeutralButton(R.string.reset_metrics, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        Metrics.reset();
+                    }
+                })
+                .create();
+    }
+}
@@ -1,24 +1,24 @@
 package com.azavyalov.criminalintent;
 
 import android.app.Dialog;
-import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
 
+import com.azavyalov.criminalintent.photo.TiledPhotoView;
+
 import java.io.File;
 
 public class PhotoViewFragment extends DialogFragment {
 
     private static final String ARG_PHOTO = "photo";
 
-    private ImageView mPhotoView;
+    private TiledPhotoView mPhotoView;
     private File mPhotoFile;
 
     public static PhotoViewFragment newInstance(File photoFile) {
@@ -36,12 +36,21 @@ public class PhotoViewFragment extends DialogFragment {
         mPhotoFile = (File) getArguments().getSerializable(ARG_PHOTO);
         View v = LayoutInflater.from(getActivity()).inflate(R.layout.dialog_photo, null);
         mPhotoView = v.findViewById(R.id.dialog_photo_view);
-        if (mPhotoFile == null || !mPhotoFile.exists()) {
-            mPhotoView.setImageDrawable(null);
-        } else {
-            Bitmap bitmap = PictureUtils.getScaledBitmap(mPhotoFile.getPath(), getActivity());
-            mPhotoView.setImageBitmap(bitmap);
+        if (mPhotoFile != null && mPhotoFile.exists()) {
+            // Zoomable; only the visible part is decoded at the current zoom level
+            mPhotoView.setPhotoFile(mPhotoFile);
         }
         return v;
     }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        Dialog dialog = getDialog();
+        if (dialog != null && dialog.getWindow() != null) {
+            // Room to pan and zoom
+            dialog.getWindow().setLayout(ViewGroup.LayoutParams.MATCH_PARENT,
+                    ViewGroup.LayoutParams.MATCH_PARENT);
+        }
+    }
 }
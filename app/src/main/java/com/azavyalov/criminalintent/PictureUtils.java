@@ -4,32 +4,90 @@ import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
+import android.os.Build;
+
+import com.azavyalov.criminalintent.metrics.Histogram;
+import com.azavyalov.criminalintent.metrics.Metrics;
+import com.azavyalov.criminalintent.metrics.Timer;
+import com.azavyalov.criminalintent.metrics.WorkType;
+import com.azavyalov.criminalintent.photo.BitmapPool;
 
 public class PictureUtils {
 
+    /**
+     * Конфигурация для непрозрачных фотографий, которые только показываются:
+     * RGB_565 занимает вдвое меньше памяти, чем ARGB_8888.
+     */
+    public static final Bitmap.Config PHOTO_CONFIG = Bitmap.Config.RGB_565;
+
+    private static final Timer DECODE = Metrics.timer("PictureUtils.decode", WorkType.DECODE);
+    private static final Histogram DECODED_BYTES = Metrics.histogram("PictureUtils.decodedBytes");
+
     public static Bitmap getScaledBitmap(String path, int destWidth, int destHeight) {
+        return getScaledBitmap(path, destWidth, destHeight, Bitmap.Config.ARGB_8888, false);
+    }
+
+    /**
+     * Декодирует изображение так, чтобы оно не было меньше destWidth x destHeight
+     * по ширине или высоте, пропуская строки степенью двойки. Если exact, результат
+     * дополнительно уменьшается, чтобы точно вписаться в destWidth x destHeight.
+     * Config.HARDWARE (API 26+) экономит кучу, но такой Bitmap нельзя сжать
+     * или нарисовать на программном Canvas.
+     */
+    public static Bitmap getScaledBitmap(String path, int destWidth, int destHeight,
+                                         Bitmap.Config config, boolean exact) {
         // Чтение размеров изображения на диске
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(path, options);
-
-        float srcWidth = options.outWidth;
-        float srcHeight = options.outHeight;
-
-        // Вычисление степени масштабирования
-        int inSampleSize = 1;
-        if (srcHeight > destHeight || srcWidth > destWidth) {
-            float heightScale = srcHeight / destHeight;
-            float widthScale = srcWidth / destWidth;
-            inSampleSize = Math.round(
-                    heightScale > widthScale ? heightScale : widthScale);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
         }
 
+        int srcWidth = options.outWidth;
+        int srcHeight = options.outHeight;
+        int inSampleSize = calculateInSampleSize(srcWidth, srcHeight, destWidth, destHeight);
+        // Hardware bitmaps can't be scaled afterwards; scale a software one and upload that
+        boolean hardware = isHardware(config);
+        Bitmap.Config decodeConfig = hardware && exact ? PHOTO_CONFIG : config;
+
         options = new BitmapFactory.Options();
         options.inSampleSize = inSampleSize;
+        options.inPreferredConfig = decodeConfig;
+        BitmapPool pool = BitmapPool.getInstance();
+        if (!isHardware(decodeConfig)) {
+            options.inMutable = true;
+            options.inBitmap = pool.get(ceilDiv(srcWidth, inSampleSize),
+                    ceilDiv(srcHeight, inSampleSize), decodeConfig);
+        }
 
         // Чтение данных и создание итогового изображения
-        return BitmapFactory.decodeFile(path, options);
+        Bitmap bitmap = decodeFile(path, options, pool);
+        if (bitmap == null || !exact) {
+            return bitmap;
+        }
+
+        float scale = Math.min((float) destWidth / bitmap.getWidth(),
+                (float) destHeight / bitmap.getHeight());
+        Bitmap scaled = bitmap;
+        if (scale < 1) {
+            scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                    true);
+        }
+        if (hardware) {
+            Bitmap uploaded = scaled.copy(config, false);
+            if (scaled != bitmap) {
+                pool.put(scaled);
+            }
+            scaled = uploaded;
+        }
+        if (scaled != bitmap) {
+            // The sampled bitmap was only an intermediate step
+            pool.put(bitmap);
+        }
+        return scaled;
     }
 
     // Масштабируем Bitmap под размер конкретной активности
@@ -38,4 +96,49 @@ public class PictureUtils {
         activity.getWindowManager().getDefaultDisplay().getSize(size);
         return getScaledBitmap(path, size.x, size.y);
     }
+
+    /**
+     * Наибольшая степень двойки, после уменьшения на которую изображение всё ещё
+     * не меньше dest хотя бы по одной стороне, то есть не хуже вписывается в dest.
+     * Декодер всё равно округляет inSampleSize вниз до степени двойки.
+     */
+    public static int calculateInSampleSize(int srcWidth, int srcHeight,
+                                            int destWidth, int destHeight) {
+        int inSampleSize = 1;
+        if (destWidth <= 0 || destHeight <= 0) {
+            return inSampleSize;
+        }
+        while (srcWidth / (inSampleSize * 2) >= destWidth
+                || srcHeight / (inSampleSize * 2) >= destHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static Bitmap decodeFile(String path, BitmapFactory.Options options, BitmapPool pool) {
+        long start = DECODE.start();
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all; decode into a fresh one
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } finally {
+            DECODE.stop(start);
+        }
+        if (bitmap != null && Metrics.isEnabled()) {
+            DECODED_BYTES.record(bitmap.getByteCount());
+        }
+        return bitmap;
+    }
+
+    private static boolean isHardware(Bitmap.Config config) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
 }
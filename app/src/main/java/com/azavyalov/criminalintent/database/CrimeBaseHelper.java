@@ -1,35 +1,209 @@
 package com.azavyalov.criminalintent.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import com.azavyalov.criminalintent.Crime;
 import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeSearchTable;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.UuidCodec;
+
+import java.io.File;
+import java.util.UUID;
 
 public class CrimeBaseHelper extends SQLiteOpenHelper {
 
-    private static final int VERSION = 1;
     private static final String DATABASE_NAME = "crimeBase.db";
 
+    // Text uuid column used up to version 2
+    private static final String LEGACY_UUID = "uuid";
+
+    private final Context mContext;
+
     public CrimeBaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    public CrimeBaseHelper(Context context, String databaseName) {
+        super(context, databaseName, null, CrimeDbSchema.VERSION);
+        mContext = context.getApplicationContext();
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL("create table " + CrimeTable.NAME + "(" +
-                " _id integer primary key autoincrement, " +
-                CrimeTable.Cols.UUID + ", " +
-                CrimeTable.Cols.TITLE + ", " +
-                CrimeTable.Cols.DATE + ", " +
-                CrimeTable.Cols.SOLVED + ", " +
-                CrimeTable.Cols.SUSPECT +
-                ")"
-        );
+        db.execSQL(CrimeTable.getCreateTable(CrimeTable.NAME));
+        execAll(db, CrimeTable.getCreateIndexes());
+        execAll(db, CrimeSearchTable.getCreateStatements());
     }
 
+    /**
+     * Миграции выполняются по одной версии за шаг. SQLiteOpenHelper вызывает
+     * onUpgrade внутри транзакции, поэтому при ошибке база остаётся в oldVersion.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            switch (version) {
+                case 2:
+                    migrateToVersion2(db);
+                    break;
+                case 3:
+                    migrateToVersion3(db);
+                    break;
+                case 4:
+                    migrateToVersion4(db);
+                    break;
+                case 5:
+                    migrateToVersion5(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to version " + version);
+            }
+        }
+    }
+
+    // v1 had untyped columns and no indexes; rebuild the table and drop duplicate uuids
+    private static void migrateToVersion2(SQLiteDatabase db) {
+        String tempTable = CrimeTable.NAME + "_v2";
+        db.execSQL("create table " + tempTable + "(" +
+                " " + Cols.ID + " integer primary key autoincrement, " +
+                LEGACY_UUID + " text not null, " +
+                Cols.TITLE + " text, " +
+                Cols.DATE + " integer not null, " +
+                Cols.SOLVED + " integer not null default 0, " +
+                Cols.SUSPECT + " text" +
+                ")"
+        );
+        db.execSQL("insert into " + tempTable + "(" +
+                Cols.ID + ", " +
+                LEGACY_UUID + ", " +
+                Cols.TITLE + ", " +
+                Cols.DATE + ", " +
+                Cols.SOLVED + ", " +
+                Cols.SUSPECT +
+                ") select " +
+                Cols.ID + ", " +
+                LEGACY_UUID + ", " +
+                Cols.TITLE + ", " +
+                "coalesce(cast(" + Cols.DATE + " as integer), 0), " +
+                "coalesce(cast(" + Cols.SOLVED + " as integer), 0), " +
+                Cols.SUSPECT +
+                " from " + CrimeTable.NAME +
+                " where " + Cols.ID + " in (select max(" + Cols.ID + ") from " + CrimeTable.NAME +
+                " where " + LEGACY_UUID + " is not null group by " + LEGACY_UUID + ")"
+        );
+        db.execSQL("drop table " + CrimeTable.NAME);
+        db.execSQL("alter table " + tempTable + " rename to " + CrimeTable.NAME);
+        db.execSQL("create unique index " + CrimeTable.Indexes.UUID +
+                " on " + CrimeTable.NAME + "(" + LEGACY_UUID + ")");
+        db.execSQL("create index " + CrimeTable.Indexes.DATE +
+                " on " + CrimeTable.NAME + "(" + Cols.DATE + ")");
+        db.execSQL("create index " + CrimeTable.Indexes.SOLVED +
+                " on " + CrimeTable.NAME + "(" + Cols.SOLVED + ")");
+    }
+
+    // v2 kept the uuid as 36-char text; split it into two integer columns
+    private static void migrateToVersion3(SQLiteDatabase db) {
+        String tempTable = CrimeTable.NAME + "_v3";
+        db.execSQL("create table " + tempTable + "(" +
+                " " + Cols.ID + " integer primary key autoincrement, " +
+                Cols.UUID_MSB + " integer not null, " +
+                Cols.UUID_LSB + " integer not null, " +
+                Cols.TITLE + " text, " +
+                Cols.DATE + " integer not null, " +
+                Cols.SOLVED + " integer not null default 0, " +
+                Cols.SUSPECT + " text" +
+                ")"
+        );
+
+        SQLiteStatement insert = db.compileStatement("insert into " + tempTable + "(" +
+                Cols.ID + ", " +
+                Cols.UUID_MSB + ", " +
+                Cols.UUID_LSB + ", " +
+                Cols.TITLE + ", " +
+                Cols.DATE + ", " +
+                Cols.SOLVED + ", " +
+                Cols.SUSPECT +
+                ") select " + Cols.ID + ", ?, ?, " +
+                Cols.TITLE + ", " +
+                Cols.DATE + ", " +
+                Cols.SOLVED + ", " +
+                Cols.SUSPECT +
+                " from " + CrimeTable.NAME + " where " + Cols.ID + " = ?");
+        Cursor cursor = db.query(CrimeTable.NAME, new String[]{Cols.ID, LEGACY_UUID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                UUID id;
+                try {
+                    id = UUID.fromString(cursor.getString(1));
+                } catch (IllegalArgumentException e) {
+                    // A row without a valid id can't be addressed by the app anyway
+                    continue;
+                }
+                insert.bindLong(1, id.getMostSignificantBits());
+                insert.bindLong(2, id.getLeastSignificantBits());
+                insert.bindLong(3, cursor.getLong(0));
+                insert.executeInsert();
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+
+        db.execSQL("drop table " + CrimeTable.NAME);
+        db.execSQL("alter table " + tempTable + " rename to " + CrimeTable.NAME);
+        db.execSQL("create unique index " + CrimeTable.Indexes.UUID +
+                " on " + CrimeTable.NAME + "(" + Cols.UUID_MSB + ", " + Cols.UUID_LSB + ")");
+        db.execSQL("create index " + CrimeTable.Indexes.DATE +
+                " on " + CrimeTable.NAME + "(" + Cols.DATE + ")");
+        db.execSQL("create index " + CrimeTable.Indexes.SOLVED +
+                " on " + CrimeTable.NAME + "(" + Cols.SOLVED + ")");
+    }
+
+    // Full-text search over existing rows
+    private static void migrateToVersion4(SQLiteDatabase db) {
+        execAll(db, CrimeSearchTable.getCreateStatements());
+        db.execSQL("insert into " + CrimeSearchTable.NAME + "(" + CrimeSearchTable.NAME +
+                ") values('rebuild')");
+    }
+
+    // Photo flag for filtering, and indexes for every filter and sort of CrimeQuery
+    private void migrateToVersion5(SQLiteDatabase db) {
+        db.execSQL("alter table " + CrimeTable.NAME + " add column " + Cols.HAS_PHOTO +
+                " integer not null default 0");
+
+        // Photos live in files; the flag is derived from what is on disk now
+        SQLiteStatement markPhoto = db.compileStatement("update " + CrimeTable.NAME + " set " +
+                Cols.HAS_PHOTO + " = 1 where " + Cols.ID + " = ?");
+        Cursor cursor = db.query(CrimeTable.NAME,
+                new String[]{Cols.ID, Cols.UUID_MSB, Cols.UUID_LSB},
+                null, null, null, null, null);
+        try {
+            File filesDir = mContext.getFilesDir();
+            while (cursor.moveToNext()) {
+                Crime crime = new Crime(UuidCodec.fromBits(cursor.getLong(1), cursor.getLong(2)));
+                if (new File(filesDir, crime.getPhotoFilename()).exists()) {
+                    markPhoto.bindLong(1, cursor.getLong(0));
+                    markPhoto.executeUpdateDelete();
+                }
+            }
+        } finally {
+            cursor.close();
+            markPhoto.close();
+        }
+
+        db.execSQL("drop index " + CrimeTable.Indexes.SOLVED);
+        execAll(db, CrimeTable.getCreateQueryIndexes());
+    }
 
+    private static void execAll(SQLiteDatabase db, String[] statements) {
+        for (String sql : statements) {
+            db.execSQL(sql);
+        }
     }
 }
@@ -4,30 +4,91 @@ import android.database.Cursor;
 import android.database.CursorWrapper;
 
 import com.azavyalov.criminalintent.Crime;
-import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable;
+import com.azavyalov.criminalintent.CrimePage;
+import com.azavyalov.criminalintent.CrimeQuery;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.UuidCodec;
 
 import java.util.Date;
 import java.util.UUID;
 
 public class CrimeCursorWrapper extends CursorWrapper {
 
+    // Resolved once per cursor; -1 when the column is not in the projection
+    private final int mRowIdIndex;
+    private final int mUuidMsbIndex;
+    private final int mUuidLsbIndex;
+    private final int mTitleIndex;
+    private final int mDateIndex;
+    private final int mSolvedIndex;
+    private final int mSuspectIndex;
+    private final int mHasPhotoIndex;
+
     public CrimeCursorWrapper(Cursor cursor) {
         super(cursor);
+        mRowIdIndex = cursor.getColumnIndex(Cols.ID);
+        mUuidMsbIndex = cursor.getColumnIndex(Cols.UUID_MSB);
+        mUuidLsbIndex = cursor.getColumnIndex(Cols.UUID_LSB);
+        mTitleIndex = cursor.getColumnIndex(Cols.TITLE);
+        mDateIndex = cursor.getColumnIndex(Cols.DATE);
+        mSolvedIndex = cursor.getColumnIndex(Cols.SOLVED);
+        mSuspectIndex = cursor.getColumnIndex(Cols.SUSPECT);
+        mHasPhotoIndex = cursor.getColumnIndex(Cols.HAS_PHOTO);
+    }
+
+    public UUID getCrimeId() {
+        return UuidCodec.fromBits(getLong(mUuidMsbIndex), getLong(mUuidLsbIndex));
+    }
+
+    public long getDateMillis() {
+        return getLong(mDateIndex);
     }
 
     public Crime getCrime() {
-        String uuidString = getString(getColumnIndex(CrimeTable.Cols.UUID));
-        String title = getString(getColumnIndex(CrimeTable.Cols.TITLE));
-        long date = getLong(getColumnIndex(CrimeTable.Cols.DATE));
-        int isSolved = getInt(getColumnIndex(CrimeTable.Cols.SOLVED));
-        String suspect = getString(getColumnIndex(CrimeTable.Cols.SUSPECT));
-
-        Crime crime = new Crime(UUID.fromString(uuidString));
-        crime.setTitle(title);
-        crime.setDate(new Date(date));
-        crime.setSolved(isSolved != 0);
-        crime.setSuspect(suspect);
+        return getCrime(getCrimeId());
+    }
 
+    // Builds the crime for the current row when its id is already known
+    public Crime getCrime(UUID id) {
+        Crime crime = new Crime(id);
+        fillCrime(crime);
         return crime;
     }
+
+    /**
+     * Копирует поля текущей строки в существующий объект без новых аллокаций,
+     * кроме строк. Столбцы, отсутствующие в проекции, не трогаются.
+     */
+    public void fillCrime(Crime crime) {
+        if (mTitleIndex != -1) {
+            crime.setTitle(getString(mTitleIndex));
+        }
+        if (mDateIndex != -1) {
+            Date date = crime.getDate();
+            if (date == null) {
+                crime.setDate(new Date(getLong(mDateIndex)));
+            } else {
+                date.setTime(getLong(mDateIndex));
+            }
+        }
+        if (mSolvedIndex != -1) {
+            crime.setSolved(getInt(mSolvedIndex) != 0);
+        }
+        if (mSuspectIndex != -1) {
+            crime.setSuspect(getString(mSuspectIndex));
+        }
+        if (mHasPhotoIndex != -1) {
+            crime.setHasPhoto(getInt(mHasPhotoIndex) != 0);
+        }
+    }
+
+    /**
+     * Ключ строки для keyset-пагинации в порядке sort.
+     */
+    public CrimePage.Key getPageKey(CrimeQuery.Sort sort) {
+        if (sort == CrimeQuery.Sort.TITLE) {
+            return new CrimePage.Key(getString(mTitleIndex), getLong(mRowIdIndex));
+        }
+        return new CrimePage.Key(getLong(mDateIndex), getLong(mRowIdIndex));
+    }
 }
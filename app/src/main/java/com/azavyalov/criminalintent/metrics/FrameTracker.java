@@ -0,0 +1,279 @@
+package com.azavyalov.criminalintent.metrics;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+import com.azavyalov.criminalintent.BuildConfig;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Длительность кадров, пока экран прокручивается: start() в начале прокрутки,
+ * stop() в конце. Кадр медленный, если занял больше полутора интервалов
+ * обновления экрана. Для медленных и обычных кадров отдельно суммируется
+ * работа каждого WorkType, завершившаяся за время кадра.
+ * flush() пишет отчёт в Logcat и добавляет строку в frame_reports/frames.csv,
+ * по которой можно сравнивать версии. Все методы вызываются из главного потока.
+ */
+public class FrameTracker {
+
+    private static final String TAG = "FrameTracker";
+    private static final String REPORT_DIR = "frame_reports";
+    private static final String REPORT_FILE = "frames.csv";
+    private static final double JANK_THRESHOLD = 1.5;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final WorkType[] WORK_TYPES = WorkType.values();
+
+    private final Context mContext;
+    private final String mName;
+    private final Choreographer mChoreographer;
+    private boolean mRunning;
+    private long mFrameIntervalNanos;
+    private long mLastFrameNanos;
+    private final long[] mLastWorkCounts = new long[WORK_TYPES.length];
+    private final long[] mLastWorkNanos = new long[WORK_TYPES.length];
+    // Reused every frame, so tracking itself doesn't allocate while scrolling
+    private final Work mFrameWork = new Work();
+
+    private final Histogram mFrameNanos = new Histogram("frames");
+    private long mDroppedFrames;
+    private final Work mSmoothWork = new Work();
+    private final Work mJankyWork = new Work();
+    private final Work mWorstWork = new Work();
+    private long mWorstFrameNanos;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            onFrame(frameTimeNanos);
+            mChoreographer.postFrameCallback(this);
+        }
+    };
+
+    /**
+     * name - экран, к которому относятся кадры, например CrimeList.
+     */
+    public FrameTracker(Context context, String name) {
+        mContext = context.getApplicationContext();
+        mName = name;
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Ничего не делает, пока метрики выключены.
+     */
+    public void start() {
+        if (mRunning || !Metrics.isEnabled()) {
+            return;
+        }
+        mRunning = true;
+        mLastFrameNanos = 0;
+        WindowManager windowManager =
+                (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        // The rate can change between scrolls, e.g. with adaptive refresh
+        mFrameIntervalNanos = (long) (1e9 / windowManager.getDefaultDisplay().getRefreshRate());
+        mChoreographer.postFrameCallback(mFrameCallback);
+    }
+
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mChoreographer.removeFrameCallback(mFrameCallback);
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        for (int i = 0; i < WORK_TYPES.length; i++) {
+            long count = Metrics.getWorkCount(WORK_TYPES[i]);
+            long nanos = Metrics.getWorkNanos(WORK_TYPES[i]);
+            mFrameWork.mCounts[i] = count - mLastWorkCounts[i];
+            mFrameWork.mNanos[i] = nanos - mLastWorkNanos[i];
+            mLastWorkCounts[i] = count;
+            mLastWorkNanos[i] = nanos;
+        }
+        long frameNanos = frameTimeNanos - mLastFrameNanos;
+        boolean first = mLastFrameNanos == 0;
+        mLastFrameNanos = frameTimeNanos;
+        if (first) {
+            // Work before the first frame belongs to no frame
+            return;
+        }
+
+        mFrameNanos.record(frameNanos);
+        if (frameNanos > mFrameIntervalNanos * JANK_THRESHOLD) {
+            mJankyWork.add(mFrameWork);
+            mDroppedFrames += Math.round((double) frameNanos / mFrameIntervalNanos) - 1;
+        } else {
+            mSmoothWork.add(mFrameWork);
+        }
+        if (frameNanos > mWorstFrameNanos) {
+            mWorstFrameNanos = frameNanos;
+            mWorstWork.reset();
+            mWorstWork.add(mFrameWork);
+        }
+    }
+
+    public long getFrameCount() {
+        return mFrameNanos.getCount();
+    }
+
+    public long getJankyFrameCount() {
+        return mJankyWork.mFrames;
+    }
+
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        long frames = getFrameCount();
+        report.append(String.format(Locale.US,
+                "%s: %d frames, %d janky (%.1f%%), %d dropped, %.0f Hz%n",
+                mName, frames, getJankyFrameCount(),
+                frames == 0 ? 0f : 100f * getJankyFrameCount() / frames,
+                mDroppedFrames, 1e9 / mFrameIntervalNanos));
+        report.append(String.format(Locale.US,
+                "frame ms: p50 %.1f, p95 %.1f, p99 %.1f, max %.1f%n",
+                toMillis(mFrameNanos.getPercentile(50)), toMillis(mFrameNanos.getPercentile(95)),
+                toMillis(mFrameNanos.getPercentile(99)), toMillis(mFrameNanos.getMax())));
+        String worst = String.format(Locale.US, "worst %.1f ms", toMillis(mWorstFrameNanos));
+        report.append(String.format(Locale.US, "%-10s %18s %18s %18s%n",
+                "per frame", "smooth", "janky", worst));
+        for (int i = 0; i < WORK_TYPES.length; i++) {
+            report.append(String.format(Locale.US, "%-10s %18s %18s %18s%n", WORK_TYPES[i],
+                    mSmoothWork.describe(i), mJankyWork.describe(i), mWorstWork.describe(i)));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Отчёт о кадрах с прошлого flush(). Обращается к диску, но только если
+     * кадры были, а они бывают только при включённых метриках.
+     */
+    public void flush() {
+        if (getFrameCount() == 0) {
+            return;
+        }
+        for (String line : getReport().split("\n")) {
+            Log.i(TAG, line);
+        }
+        try {
+            appendCsv();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write frame report", e);
+        }
+
+        mFrameNanos.reset();
+        mDroppedFrames = 0;
+        mSmoothWork.reset();
+        mJankyWork.reset();
+        mWorstWork.reset();
+        mWorstFrameNanos = 0;
+    }
+
+    private void appendCsv() throws IOException {
+        // External files can be pulled with adb without root; fall back to internal storage
+        File baseDir = mContext.getExternalFilesDir(null);
+        File dir = new File(baseDir != null ? baseDir : mContext.getFilesDir(), REPORT_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        File file = new File(dir, REPORT_FILE);
+        boolean header = !file.exists();
+
+        StringBuilder row = new StringBuilder();
+        if (header) {
+            row.append("time,version,version_code,device,sdk,screen,refresh_hz,frames,janky,dropped,"
+                    + "p50_ms,p95_ms,p99_ms,max_ms");
+            for (WorkType workType : WORK_TYPES) {
+                String column = workType.name().toLowerCase(Locale.US);
+                row.append(',').append(column).append("_smooth_count")
+                        .append(',').append(column).append("_smooth_ms")
+                        .append(',').append(column).append("_janky_count")
+                        .append(',').append(column).append("_janky_ms");
+            }
+            row.append('\n');
+        }
+        row.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US).format(new Date()))
+                .append(',').append(BuildConfig.VERSION_NAME)
+                .append(',').append(BuildConfig.VERSION_CODE)
+                .append(',').append(Build.MODEL.replace(',', ' '))
+                .append(',').append(Build.VERSION.SDK_INT)
+                .append(',').append(mName)
+                .append(String.format(Locale.US, ",%.0f,%d,%d,%d,%.2f,%.2f,%.2f,%.2f",
+                        1e9 / mFrameIntervalNanos, getFrameCount(), getJankyFrameCount(),
+                        mDroppedFrames, toMillis(mFrameNanos.getPercentile(50)),
+                        toMillis(mFrameNanos.getPercentile(95)),
+                        toMillis(mFrameNanos.getPercentile(99)), toMillis(mFrameNanos.getMax())));
+        for (int i = 0; i < WORK_TYPES.length; i++) {
+            row.append(String.format(Locale.US, ",%.3f,%.3f,%.3f,%.3f",
+                    mSmoothWork.getCountPerFrame(i), mSmoothWork.getMillisPerFrame(i),
+                    mJankyWork.getCountPerFrame(i), mJankyWork.getMillisPerFrame(i)));
+        }
+        row.append('\n');
+
+        Writer writer = new FileWriter(file, true);
+        try {
+            writer.write(row.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Работа по видам, завершившаяся за mFrames кадров.
+     */
+    private static class Work {
+
+        private long mFrames;
+        private final long[] mCounts = new long[WORK_TYPES.length];
+        private final long[] mNanos = new long[WORK_TYPES.length];
+
+        private void add(Work frame) {
+            mFrames++;
+            for (int i = 0; i < WORK_TYPES.length; i++) {
+                mCounts[i] += frame.mCounts[i];
+                mNanos[i] += frame.mNanos[i];
+            }
+        }
+
+        private void reset() {
+            mFrames = 0;
+            for (int i = 0; i < WORK_TYPES.length; i++) {
+                mCounts[i] = 0;
+                mNanos[i] = 0;
+            }
+        }
+
+        private double getCountPerFrame(int type) {
+            return mFrames == 0 ? 0 : (double) mCounts[type] / mFrames;
+        }
+
+        private double getMillisPerFrame(int type) {
+            return mFrames == 0 ? 0 : toMillis(mNanos[type]) / mFrames;
+        }
+
+        private String describe(int type) {
+            return String.format(Locale.US, "%.2f x, %.2f ms",
+                    getCountPerFrame(type), getMillisPerFrame(type));
+        }
+    }
+}
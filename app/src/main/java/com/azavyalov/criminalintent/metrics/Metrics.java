@@ -0,0 +1,158 @@
+package com.azavyalov.criminalintent.metrics;
+
+import android.util.Log;
+
+import com.azavyalov.criminalintent.BuildConfig;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Реестр таймеров, гистограмм и счётчиков. Таймеры и гистограммы заводятся
+ * один раз в статических полях, так что на горячем пути нет поиска по имени.
+ * По умолчанию включён только в отладочной сборке.
+ */
+public final class Metrics {
+
+    private static final String TAG = "Metrics";
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private static volatile boolean sEnabled = BuildConfig.DEBUG;
+
+    private static final Map<String, Timer> sTimers = new TreeMap<>();
+    private static final Map<String, Histogram> sHistograms = new TreeMap<>();
+    private static final Map<String, Gauge> sGauges = new TreeMap<>();
+    // Totals per WorkType, never reset, so readers can take differences
+    private static final AtomicLongArray sWorkCounts = new AtomicLongArray(WorkType.values().length);
+    private static final AtomicLongArray sWorkNanos = new AtomicLongArray(WorkType.values().length);
+
+    /**
+     * Счётчик, который уже ведёт сам компонент, например попадания в кеш.
+     */
+    public interface Gauge {
+        long getValue();
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Таймер с данным именем; повторный вызов возвращает тот же экземпляр.
+     */
+    public static Timer timer(String name) {
+        return timer(name, null);
+    }
+
+    /**
+     * Таймер, замеры которого также суммируются по виду работы workType.
+     */
+    public static synchronized Timer timer(String name, WorkType workType) {
+        Timer timer = sTimers.get(name);
+        if (timer == null) {
+            timer = new Timer(name, workType);
+            sTimers.put(name, timer);
+        }
+        return timer;
+    }
+
+    /**
+     * Гистограмма произвольных значений, например размеров в байтах.
+     * Записывать в неё стоит только при isEnabled().
+     */
+    public static synchronized Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram(name);
+            sHistograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Заменяет счётчик с тем же именем, если он уже был.
+     */
+    public static synchronized void register(String name, Gauge gauge) {
+        sGauges.put(name, gauge);
+    }
+
+    /**
+     * Сколько операций данного вида завершилось с момента запуска.
+     */
+    public static long getWorkCount(WorkType workType) {
+        return sWorkCounts.get(workType.ordinal());
+    }
+
+    public static long getWorkNanos(WorkType workType) {
+        return sWorkNanos.get(workType.ordinal());
+    }
+
+    static void addWork(WorkType workType, long nanos) {
+        sWorkCounts.incrementAndGet(workType.ordinal());
+        sWorkNanos.addAndGet(workType.ordinal(), nanos);
+    }
+
+    public static synchronized void reset() {
+        for (Timer timer : sTimers.values()) {
+            timer.getHistogram().reset();
+        }
+        for (Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Текстовый отчёт: перцентили таймеров в миллисекундах, гистограмм - в
+     * их собственных единицах, затем значения счётчиков.
+     */
+    public static synchronized String dump() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%-32s %7s %8s %8s %8s %8s%n",
+                "timer, ms", "count", "p50", "p95", "p99", "max"));
+        for (Timer timer : sTimers.values()) {
+            Histogram histogram = timer.getHistogram();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format(Locale.US, "%-32s %7d %8.3f %8.3f %8.3f %8.3f%n",
+                    timer.getName(), histogram.getCount(),
+                    histogram.getPercentile(50) / NANOS_PER_MILLI,
+                    histogram.getPercentile(95) / NANOS_PER_MILLI,
+                    histogram.getPercentile(99) / NANOS_PER_MILLI,
+                    histogram.getMax() / NANOS_PER_MILLI));
+        }
+        report.append(String.format(Locale.US, "%n%-32s %7s %8s %8s %8s %8s%n",
+                "histogram", "count", "p50", "p95", "p99", "max"));
+        for (Histogram histogram : sHistograms.values()) {
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format(Locale.US, "%-32s %7d %8d %8d %8d %8d%n",
+                    histogram.getName(), histogram.getCount(),
+                    histogram.getPercentile(50), histogram.getPercentile(95),
+                    histogram.getPercentile(99), histogram.getMax()));
+        }
+        report.append(String.format(Locale.US, "%n%-32s %7s%n", "counter", "value"));
+        for (Map.Entry<String, Gauge> entry : sGauges.entrySet()) {
+            report.append(String.format(Locale.US, "%-32s %7d%n",
+                    entry.getKey(), entry.getValue().getValue()));
+        }
+        return report.toString();
+    }
+
+    public static void log() {
+        // Logcat truncates long messages, so the report goes line by line
+        for (String line : dump().split("\n")) {
+            Log.i(TAG, line);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.azavyalov.criminalintent.metrics;
+
+import android.os.Trace;
+
+/**
+ * Длительность операции в наносекундах плюс секция Trace с тем же именем,
+ * видимая в systrace/Perfetto. Пока метрики выключены, start() и stop()
+ * сводятся к чтению одного флага.
+ *
+ *     long start = TIMER.start();
+ *     try {
+ *         ...
+ *     } finally {
+ *         TIMER.stop(start);
+ *     }
+ */
+public class Timer {
+
+    public static final long NOT_STARTED = Long.MIN_VALUE;
+
+    // Trace rejects longer section names
+    private static final int MAX_SECTION_NAME = 127;
+
+    private final String mName;
+    private final String mSectionName;
+    private final Histogram mHistogram;
+    private final WorkType mWorkType;
+
+    Timer(String name, WorkType workType) {
+        mName = name;
+        mWorkType = workType;
+        mSectionName = name.length() > MAX_SECTION_NAME ? name.substring(0, MAX_SECTION_NAME) : name;
+        mHistogram = new Histogram(name);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Histogram getHistogram() {
+        return mHistogram;
+    }
+
+    public long start() {
+        if (!Metrics.isEnabled()) {
+            return NOT_STARTED;
+        }
+        Trace.beginSection(mSectionName);
+        return System.nanoTime();
+    }
+
+    /**
+     * Вызывается в том же потоке, что и start(), иначе секции Trace перепутаются.
+     */
+    public void stop(long start) {
+        if (start == NOT_STARTED) {
+            return;
+        }
+        record(System.nanoTime() - start);
+        Trace.endSection();
+    }
+
+    /**
+     * Начало интервала без секции Trace, для интервалов, которые заканчиваются
+     * в другом потоке, например ожидание в очереди.
+     */
+    public long mark() {
+        return Metrics.isEnabled() ? System.nanoTime() : NOT_STARTED;
+    }
+
+    public void recordSince(long mark) {
+        if (mark != NOT_STARTED) {
+            record(System.nanoTime() - mark);
+        }
+    }
+
+    private void record(long nanos) {
+        mHistogram.record(nanos);
+        if (mWorkType != null) {
+            Metrics.addWork(mWorkType, nanos);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.azavyalov.criminalintent.metrics;
+
+/**
+ * Вид работы, которую замеряет таймер. FrameTracker сопоставляет по этим
+ * видам медленные кадры с тем, что выполнялось одновременно с ними.
+ */
+public enum WorkType {
+    DATABASE,
+    DECODE,
+    BIND
+}
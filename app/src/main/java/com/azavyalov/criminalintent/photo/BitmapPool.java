@@ -0,0 +1,154 @@
+package com.azavyalov.criminalintent.photo;
+
+import android.graphics.Bitmap;
+
+import com.azavyalov.criminalintent.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Пул изменяемых Bitmap для BitmapFactory.Options.inBitmap. Bitmap ищется по
+ * конфигурации и размеру в байтах: начиная с API 19 BitmapFactory может
+ * записать изображение в любой Bitmap не меньшего размера той же конфигурации,
+ * меняя его ширину и высоту. BitmapRegionDecoder размеры inBitmap не меняет,
+ * поэтому ему Bitmap отсюда не подходят, см. TiledPhotoView.TilePool.
+ * В пул можно возвращать только Bitmap, которые больше нигде не отображаются.
+ */
+public class BitmapPool {
+
+    private static BitmapPool sBitmapPool;
+
+    private final long mMaxBytes;
+    private final Map<Bitmap.Config, TreeMap<Integer, List<Bitmap>>> mBitmaps =
+            new EnumMap<>(Bitmap.Config.class);
+    // Oldest first, for trimming
+    private final LinkedList<Bitmap> mOrder = new LinkedList<>();
+    private long mBytes;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    public static synchronized BitmapPool getInstance() {
+        if (sBitmapPool == null) {
+            sBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+            sBitmapPool.registerMetrics();
+        }
+        return sBitmapPool;
+    }
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Возвращает Bitmap, в который поместится изображение width x height, или null.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        TreeMap<Integer, List<Bitmap>> bySize = mBitmaps.get(config);
+        int needed = width * height * getBytesPerPixel(config);
+        Map.Entry<Integer, List<Bitmap>> entry = bySize == null ? null : bySize.ceilingEntry(needed);
+        // A much larger bitmap would waste more memory than a fresh allocation saves
+        if (entry == null || entry.getKey() > needed * 2) {
+            mMissCount++;
+            return null;
+        }
+        List<Bitmap> bitmaps = entry.getValue();
+        Bitmap bitmap = bitmaps.remove(bitmaps.size() - 1);
+        if (bitmaps.isEmpty()) {
+            bySize.remove(entry.getKey());
+        }
+        mOrder.remove(bitmap);
+        mBytes -= bitmap.getAllocationByteCount();
+        mHitCount++;
+        return bitmap;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()
+                || bitmap.getConfig() == null) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        TreeMap<Integer, List<Bitmap>> bySize = mBitmaps.get(bitmap.getConfig());
+        if (bySize == null) {
+            bySize = new TreeMap<>();
+            mBitmaps.put(bitmap.getConfig(), bySize);
+        }
+        List<Bitmap> bitmaps = bySize.get(size);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<>(1);
+            bySize.put(size, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mOrder.addLast(bitmap);
+        mBytes += size;
+        trimTo(mMaxBytes);
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    private void registerMetrics() {
+        Metrics.register("BitmapPool.hits", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getHitCount();
+            }
+        });
+        Metrics.register("BitmapPool.misses", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getMissCount();
+            }
+        });
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getSizeBytes() {
+        return mBytes;
+    }
+
+    private void trimTo(long maxBytes) {
+        while (mBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap bitmap = mOrder.removeFirst();
+            int size = bitmap.getAllocationByteCount();
+            TreeMap<Integer, List<Bitmap>> bySize = mBitmaps.get(bitmap.getConfig());
+            List<Bitmap> bitmaps = bySize.get(size);
+            bitmaps.remove(bitmap);
+            if (bitmaps.isEmpty()) {
+                bySize.remove(size);
+            }
+            mBytes -= size;
+            bitmap.recycle();
+        }
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
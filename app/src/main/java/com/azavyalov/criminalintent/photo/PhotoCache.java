@@ -0,0 +1,352 @@
+package com.azavyalov.criminalintent.photo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.azavyalov.criminalintent.PictureUtils;
+import com.azavyalov.criminalintent.metrics.Histogram;
+import com.azavyalov.criminalintent.metrics.Metrics;
+import com.azavyalov.criminalintent.metrics.Timer;
+import com.azavyalov.criminalintent.metrics.WorkType;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Двухуровневый кеш фотографий: LRU в памяти, ограниченный по байтам, и
+ * уменьшенные копии на диске. Ключ - файл, целевой размер и время изменения
+ * файла, поэтому перезаписанная фотография никогда не попадёт на старую копию.
+ */
+public class PhotoCache {
+
+    private static final String TAG = "PhotoCache";
+    private static final String DISK_CACHE_DIR = "photo_cache";
+    private static final long DISK_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+    private static final int DISK_CACHE_QUALITY = 90;
+
+    private static final Timer DECODE_VARIANT = Metrics.timer("PhotoCache.decodeVariant",
+            WorkType.DECODE);
+    private static final Histogram DECODED_BYTES = Metrics.histogram("PhotoCache.decodedBytes");
+
+    private static PhotoCache sPhotoCache;
+
+    private final LruCache<Key, Bitmap> mMemoryCache;
+    // Lookup key for getFromMemory, so a hit from the main thread allocates nothing
+    private final Key mProbe = new Key();
+    private final File mDiskCacheDir;
+    private final Object mDiskLock = new Object();
+    // Last seen mtime per photo path, so memory lookups don't stat the file
+    private final Map<String, Long> mLastModified = new ConcurrentHashMap<>();
+
+    private long mMemoryHitCount;
+    private long mDiskHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    public static synchronized PhotoCache getInstance(Context context) {
+        if (sPhotoCache == null) {
+            sPhotoCache = new PhotoCache(context.getApplicationContext());
+            sPhotoCache.registerMetrics();
+        }
+        return sPhotoCache;
+    }
+
+    private PhotoCache(Context context) {
+        // An eighth of the heap, the usual share for decoded images
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        mMemoryCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) {
+                    synchronized (PhotoCache.this) {
+                        mEvictionCount++;
+                    }
+                }
+            }
+        };
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+    }
+
+    /**
+     * Только память, без обращения к диску - можно вызывать из главного потока.
+     * Находит только то, что уже загружалось через get.
+     */
+    public Bitmap getFromMemory(File photoFile, int width, int height) {
+        String path = photoFile.getPath();
+        Long lastModified = mLastModified.get(path);
+        if (lastModified == null) {
+            return null;
+        }
+        // LruCache doesn't keep the key on a lookup, so the probe can be reused
+        synchronized (mProbe) {
+            return mMemoryCache.get(mProbe.set(path, width, height, lastModified));
+        }
+    }
+
+    /**
+     * Возвращает фотографию, уменьшенную под width x height: из памяти, с диска
+     * или декодируя оригинал. Обращается к диску, поэтому не для главного потока.
+     * Возвращает null, если файла нет или его не удалось декодировать.
+     */
+    public Bitmap get(File photoFile, int width, int height) {
+        long lastModified = photoFile.lastModified();
+        mLastModified.put(photoFile.getPath(), lastModified);
+        Key key = new Key().set(photoFile.getPath(), width, height, lastModified);
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            synchronized (this) {
+                mMemoryHitCount++;
+            }
+            return bitmap;
+        }
+
+        File variant = getVariantFile(photoFile, width, height, lastModified);
+        if (variant.exists()) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = PictureUtils.PHOTO_CONFIG;
+            long start = DECODE_VARIANT.start();
+            try {
+                bitmap = BitmapFactory.decodeFile(variant.getPath(), options);
+            } finally {
+                DECODE_VARIANT.stop(start);
+            }
+            if (bitmap != null) {
+                if (Metrics.isEnabled()) {
+                    DECODED_BYTES.record(bitmap.getByteCount());
+                }
+                synchronized (this) {
+                    mDiskHitCount++;
+                }
+                // Keeps the least recently used variants at the head of the trim order
+                variant.setLastModified(System.currentTimeMillis());
+                mMemoryCache.put(key, bitmap);
+                return bitmap;
+            }
+        }
+
+        synchronized (this) {
+            mMissCount++;
+        }
+        if (!photoFile.exists()) {
+            return null;
+        }
+        // Opaque photo scaled to fit exactly, so the disk copy is no bigger than needed
+        bitmap = PictureUtils.getScaledBitmap(photoFile.getPath(), width, height,
+                PictureUtils.PHOTO_CONFIG, true);
+        if (bitmap == null) {
+            return null;
+        }
+        writeVariant(variant, bitmap);
+        mMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Удаляет все закешированные копии фотографии, например после новой съёмки.
+     */
+    public void invalidate(File photoFile) {
+        String path = photoFile.getPath();
+        mLastModified.remove(path);
+        for (Key key : mMemoryCache.snapshot().keySet()) {
+            if (key.mPath.equals(path)) {
+                mMemoryCache.remove(key);
+            }
+        }
+        String variantPrefix = getVariantPrefix(photoFile);
+        synchronized (mDiskLock) {
+            File[] variants = mDiskCacheDir.listFiles();
+            if (variants == null) {
+                return;
+            }
+            for (File variant : variants) {
+                if (variant.getName().startsWith(variantPrefix)) {
+                    variant.delete();
+                }
+            }
+        }
+    }
+
+    public void clearMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    private void registerMetrics() {
+        Metrics.register("PhotoCache.memoryHits", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getMemoryHitCount();
+            }
+        });
+        Metrics.register("PhotoCache.diskHits", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getDiskHitCount();
+            }
+        });
+        Metrics.register("PhotoCache.misses", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getMissCount();
+            }
+        });
+        Metrics.register("PhotoCache.evictions", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getEvictionCount();
+            }
+        });
+    }
+
+    public synchronized long getMemoryHitCount() {
+        return mMemoryHitCount;
+    }
+
+    public synchronized long getDiskHitCount() {
+        return mDiskHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public int getMemorySize() {
+        return mMemoryCache.size();
+    }
+
+    private void writeVariant(File variant, Bitmap bitmap) {
+        synchronized (mDiskLock) {
+            if (!mDiskCacheDir.exists() && !mDiskCacheDir.mkdirs()) {
+                return;
+            }
+            // Written under a temporary name so a reader never sees a partial file
+            File temp = new File(mDiskCacheDir, variant.getName() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(temp);
+                bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, out);
+                out.close();
+                out = null;
+                if (!temp.renameTo(variant)) {
+                    temp.delete();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write " + variant, e);
+                temp.delete();
+            } finally {
+                closeQuietly(out);
+            }
+            trimDiskCache();
+        }
+    }
+
+    private void trimDiskCache() {
+        File[] variants = mDiskCacheDir.listFiles();
+        if (variants == null) {
+            return;
+        }
+        long total = 0;
+        for (File variant : variants) {
+            total += variant.length();
+        }
+        if (total <= DISK_CACHE_MAX_BYTES) {
+            return;
+        }
+        Arrays.sort(variants, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File variant : variants) {
+            if (total <= DISK_CACHE_MAX_BYTES) {
+                break;
+            }
+            long length = variant.length();
+            if (variant.delete()) {
+                total -= length;
+                synchronized (this) {
+                    mEvictionCount++;
+                }
+            }
+        }
+    }
+
+    private File getVariantFile(File photoFile, int width, int height, long lastModified) {
+        return new File(mDiskCacheDir, getVariantPrefix(photoFile) + width + "x" + height + "_" +
+                lastModified + ".jpg");
+    }
+
+    // IMG_<uuid>.jpg -> IMG_<uuid>_
+    private static String getVariantPrefix(File photoFile) {
+        String name = photoFile.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + "_";
+    }
+
+    private static void closeQuietly(FileOutputStream out) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    // Only mProbe is ever changed, and it is never stored in the cache
+    private static final class Key {
+
+        private String mPath;
+        private int mWidth;
+        private int mHeight;
+        private long mLastModified;
+
+        private Key set(String path, int width, int height, long lastModified) {
+            mPath = path;
+            mWidth = width;
+            mHeight = height;
+            mLastModified = lastModified;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mWidth == key.mWidth && mHeight == key.mHeight
+                    && mLastModified == key.mLastModified && mPath.equals(key.mPath);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mPath.hashCode();
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            return 31 * result + (int) (mLastModified ^ (mLastModified >>> 32));
+        }
+    }
+}
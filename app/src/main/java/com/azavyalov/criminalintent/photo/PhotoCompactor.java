@@ -0,0 +1,304 @@
+package com.azavyalov.criminalintent.photo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.azavyalov.criminalintent.Crime;
+import com.azavyalov.criminalintent.CrimeLab;
+import com.azavyalov.criminalintent.PictureUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Поворачивает фотографии с камеры по EXIF и пересжимает их. Уменьшает их
+ * только после setMaxDimension: по умолчанию оригинал сохраняет полное
+ * разрешение для TiledPhotoView. Файл заменяется атомарно: через временный
+ * файл и rename.
+ */
+public class PhotoCompactor {
+
+    private static final String TAG = "PhotoCompactor";
+    // Downscaling loses the original for good, so it is opt-in
+    private static final int NO_MAX_DIMENSION = 0;
+    private static final int DEFAULT_QUALITY = 85;
+    // Originals only, not the _thumb/_preview copies
+    private static final Pattern PHOTO_NAME = Pattern.compile("IMG_([0-9a-fA-F-]{36})\\.jpg");
+
+    private static PhotoCompactor sPhotoCompactor;
+
+    private final Context mContext;
+    private final PhotoCache mPhotoCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "photo-compactor");
+                }
+            });
+
+    private int mMaxDimension = NO_MAX_DIMENSION;
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+    private int mQuality = DEFAULT_QUALITY;
+
+    /**
+     * Итог прохода по фотографиям.
+     */
+    public static class Result {
+
+        private int mScannedCount;
+        private int mCompactedCount;
+        private long mBytesBefore;
+        private long mBytesAfter;
+
+        public int getScannedCount() {
+            return mScannedCount;
+        }
+
+        public int getCompactedCount() {
+            return mCompactedCount;
+        }
+
+        public long getBytesSaved() {
+            return mBytesBefore - mBytesAfter;
+        }
+
+        @Override
+        public String toString() {
+            return "compacted " + mCompactedCount + " of " + mScannedCount + " photos, saved " +
+                    getBytesSaved() / 1024 + " KB";
+        }
+    }
+
+    public interface Callback {
+        void onCompacted(Result result);
+    }
+
+    public static synchronized PhotoCompactor getInstance(Context context) {
+        if (sPhotoCompactor == null) {
+            sPhotoCompactor = new PhotoCompactor(context.getApplicationContext());
+        }
+        return sPhotoCompactor;
+    }
+
+    private PhotoCompactor(Context context) {
+        mContext = context;
+        mPhotoCache = PhotoCache.getInstance(context);
+    }
+
+    /**
+     * Наибольшая сторона фотографии после сжатия, в пикселях; 0 - не уменьшать.
+     * Уменьшение необратимо, и TiledPhotoView не сможет показать полное разрешение.
+     */
+    public synchronized void setMaxDimension(int maxDimension) {
+        mMaxDimension = maxDimension;
+    }
+
+    /**
+     * JPEG или WebP; имя файла остаётся .jpg, декодер определяет формат по содержимому.
+     */
+    public synchronized void setFormat(Bitmap.CompressFormat format, int quality) {
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    /**
+     * Сжимает все фотографии в фоновом потоке и пересоздаёт их уменьшенные копии.
+     * callback, если не null, получает итог в главном потоке.
+     */
+    public Future<Result> compactAllAsync(final Callback callback) {
+        return mExecutor.submit(new Callable<Result>() {
+            @Override
+            public Result call() {
+                final Result result = compactAll();
+                Log.i(TAG, result.toString());
+                if (callback != null) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onCompacted(result);
+                        }
+                    });
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Каждая фотография обрабатывается в потоке PhotoVariants, по очереди с
+     * только что снятыми, поэтому сам вызов не должен быть в этом потоке.
+     */
+    public Result compactAll() {
+        final Result result = new Result();
+        File[] files = mContext.getFilesDir().listFiles();
+        if (files == null) {
+            return result;
+        }
+        final PhotoVariants variants = PhotoVariants.getInstance(mContext);
+        CrimeLab crimeLab = CrimeLab.getInstance(mContext);
+        for (final File file : files) {
+            Matcher matcher = PHOTO_NAME.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            Crime crime = new Crime(UUID.fromString(matcher.group(1)));
+            final File thumbnail = crimeLab.getThumbnailFile(crime);
+            final File preview = crimeLab.getPreviewFile(crime);
+            try {
+                // One photo per task, so a new capture waits for one photo, not the whole pass
+                variants.runNow(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        boolean compacted = compact(file, result);
+                        // Copies made from the old pixels would be rotated or stale
+                        if (compacted || !thumbnail.exists() || !preview.exists()) {
+                            variants.generateNow(file, thumbnail, preview);
+                        }
+                        return null;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Сжимает одну фотографию. Возвращает true, если файл был перезаписан.
+     * Вызывается только в потоке PhotoVariants, см. PhotoVariants.runNow().
+     */
+    public boolean compact(File photoFile) {
+        return compact(photoFile, new Result());
+    }
+
+    // Synchronized for the settings; files are only rewritten on the PhotoVariants thread
+    private synchronized boolean compact(File photoFile, Result result) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photoFile.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return false;
+        }
+        result.mScannedCount++;
+
+        int orientation = readOrientation(photoFile);
+        boolean oversized = mMaxDimension != NO_MAX_DIMENSION
+                && Math.max(bounds.outWidth, bounds.outHeight) > mMaxDimension;
+        if (!oversized && orientation == ExifInterface.ORIENTATION_NORMAL) {
+            return false;
+        }
+        int width = oversized ? mMaxDimension : bounds.outWidth;
+        int height = oversized ? mMaxDimension : bounds.outHeight;
+        // Decoded and rotated copies are both in memory at full colour depth
+        if (2L * width * height * 4 > Runtime.getRuntime().maxMemory() / 2) {
+            Log.w(TAG, "Too large to re-encode in memory, left as is: " + photoFile);
+            return false;
+        }
+
+        // Full colour depth: the result is encoded again, and RGB_565 would band
+        Bitmap bitmap = PictureUtils.getScaledBitmap(photoFile.getPath(),
+                width, height, Bitmap.Config.ARGB_8888, true);
+        if (bitmap == null) {
+            return false;
+        }
+        Bitmap oriented = applyOrientation(bitmap, orientation);
+
+        long before = photoFile.length();
+        File compacted = new File(photoFile.getPath() + ".compact");
+        boolean written = PhotoVariants.write(oriented, compacted, mFormat, mQuality);
+        BitmapPool pool = BitmapPool.getInstance();
+        if (oriented != bitmap) {
+            pool.put(oriented);
+        }
+        pool.put(bitmap);
+        if (!written) {
+            return false;
+        }
+        long after = compacted.length();
+        if (after >= before && orientation == ExifInterface.ORIENTATION_NORMAL) {
+            // Re-encoding did not pay off; keep the original
+            compacted.delete();
+            return false;
+        }
+        if (!compacted.renameTo(photoFile)) {
+            compacted.delete();
+            return false;
+        }
+        mPhotoCache.invalidate(photoFile);
+        result.mCompactedCount++;
+        result.mBytesBefore += before;
+        result.mBytesAfter += after;
+        return true;
+    }
+
+    private static int readOrientation(File photoFile) {
+        try {
+            int orientation = new ExifInterface(photoFile.getPath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            return orientation == ExifInterface.ORIENTATION_UNDEFINED
+                    ? ExifInterface.ORIENTATION_NORMAL : orientation;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read EXIF of " + photoFile, e);
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    // Bitmap.compress writes no EXIF, so the orientation has to be baked into the pixels
+    private static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return bitmap;
+        }
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                matrix, true);
+    }
+}
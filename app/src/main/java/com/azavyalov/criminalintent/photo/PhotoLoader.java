@@ -0,0 +1,265 @@
+package com.azavyalov.criminalintent.photo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.view.View;
+import android.widget.ImageView;
+
+import androidx.annotation.DrawableRes;
+import androidx.core.view.ViewCompat;
+
+import com.azavyalov.criminalintent.R;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Декодирует фотографии в фоновых потоках и ставит их в ImageView в главном
+ * потоке. Пока идёт декодирование, показывается заглушка. Одинаковые запросы
+ * склеиваются, а запросы переиспользованных или отсоединённых view отменяются.
+ * Все открытые методы вызываются только из главного потока.
+ */
+public class PhotoLoader {
+
+    private static final int POOL_SIZE = 2;
+
+    private static PhotoLoader sPhotoLoader;
+
+    private final PhotoCache mPhotoCache;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Requests by (file, size); touched on the main thread only
+    private final Map<String, Request> mInFlight = new HashMap<>();
+
+    public static synchronized PhotoLoader getInstance(Context context) {
+        if (sPhotoLoader == null) {
+            sPhotoLoader = new PhotoLoader(context.getApplicationContext());
+        }
+        return sPhotoLoader;
+    }
+
+    private PhotoLoader(Context context) {
+        mPhotoCache = PhotoCache.getInstance(context);
+        mExecutor = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "photo-decode-" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Загружает фотографию размером width x height в view. Предыдущий запрос
+     * этого view отменяется. Если файла нет, остаётся заглушка.
+     */
+    public void load(ImageView view, File photoFile, int width, int height,
+                     @DrawableRes int placeholder) {
+        Target target = (Target) view.getTag(R.id.photo_loader_target);
+        if (target == null) {
+            target = new Target(view);
+            view.setTag(R.id.photo_loader_target, target);
+            view.addOnAttachStateChangeListener(target);
+        }
+        target.detach();
+        target.mPhotoFile = photoFile;
+        target.mWidth = width;
+        target.mHeight = height;
+        target.mPlaceholder = placeholder;
+        target.mDelivered = false;
+
+        Bitmap bitmap = mPhotoCache.getFromMemory(photoFile, width, height);
+        if (bitmap != null) {
+            target.deliver(bitmap);
+            return;
+        }
+        view.setImageResource(placeholder);
+        if (ViewCompat.isAttachedToWindow(view)) {
+            start(target);
+        }
+        // otherwise the request starts once the view is attached
+    }
+
+    /**
+     * Декодирует фотографию в кеш без view, чтобы следующий load нашёл её в
+     * памяти. load того же файла и размера присоединяется к идущей предзагрузке.
+     */
+    public void prefetch(File photoFile, int width, int height) {
+        if (mPhotoCache.getFromMemory(photoFile, width, height) != null) {
+            return;
+        }
+        Request request = mInFlight.get(getKey(photoFile, width, height));
+        if (request == null) {
+            request = submit(photoFile, width, height);
+        }
+        request.mPrefetch = true;
+    }
+
+    /**
+     * Отменяет предзагрузку, если её ещё не начали и никакой view её не ждёт.
+     */
+    public void cancelPrefetch(File photoFile, int width, int height) {
+        Request request = mInFlight.get(getKey(photoFile, width, height));
+        if (request != null && request.mPrefetch) {
+            request.mPrefetch = false;
+            if (request.mTargets.isEmpty()) {
+                cancelRequest(request);
+            }
+        }
+    }
+
+    /**
+     * Отменяет запрос view, если он ещё не выполнен.
+     */
+    public void cancel(ImageView view) {
+        Target target = (Target) view.getTag(R.id.photo_loader_target);
+        if (target != null) {
+            target.detach();
+            target.mPhotoFile = null;
+        }
+    }
+
+    private void start(Target target) {
+        Request request = mInFlight.get(getKey(target.mPhotoFile, target.mWidth, target.mHeight));
+        if (request == null) {
+            request = submit(target.mPhotoFile, target.mWidth, target.mHeight);
+        }
+        request.mTargets.add(target);
+        target.mRequest = request;
+    }
+
+    private Request submit(File photoFile, int width, int height) {
+        String key = getKey(photoFile, width, height);
+        Request request = new Request(key, photoFile, width, height);
+        mInFlight.put(key, request);
+        request.mFuture = mExecutor.submit(request);
+        return request;
+    }
+
+    private static String getKey(File photoFile, int width, int height) {
+        return photoFile.getPath() + "|" + width + "x" + height;
+    }
+
+    private void finish(Request request, Bitmap bitmap) {
+        if (mInFlight.get(request.mKey) == request) {
+            mInFlight.remove(request.mKey);
+        }
+        for (Target target : request.mTargets) {
+            target.mRequest = null;
+            target.deliver(bitmap);
+        }
+        request.mTargets.clear();
+    }
+
+    private void removeTarget(Request request, Target target) {
+        request.mTargets.remove(target);
+        if (request.mTargets.isEmpty() && !request.mPrefetch) {
+            cancelRequest(request);
+        }
+    }
+
+    // Nobody is waiting for it anymore; a decode that already started still fills the cache
+    private void cancelRequest(Request request) {
+        request.mCancelled = true;
+        request.mFuture.cancel(false);
+        if (mInFlight.get(request.mKey) == request) {
+            mInFlight.remove(request.mKey);
+        }
+    }
+
+    private class Request implements Runnable {
+
+        private final String mKey;
+        private final File mPhotoFile;
+        private final int mWidth;
+        private final int mHeight;
+        private final List<Target> mTargets = new ArrayList<>(1);
+        private volatile boolean mCancelled;
+        // Kept alive without targets until the prefetch is cancelled
+        private boolean mPrefetch;
+        private Future<?> mFuture;
+
+        private Request(String key, File photoFile, int width, int height) {
+            mKey = key;
+            mPhotoFile = photoFile;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap = mPhotoCache.get(mPhotoFile, mWidth, mHeight);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        finish(Request.this, bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    private class Target implements View.OnAttachStateChangeListener {
+
+        private final ImageView mView;
+        private File mPhotoFile;
+        private int mWidth;
+        private int mHeight;
+        private int mPlaceholder;
+        private boolean mDelivered;
+        private Request mRequest;
+
+        private Target(ImageView view) {
+            mView = view;
+        }
+
+        private void deliver(Bitmap bitmap) {
+            mDelivered = true;
+            if (bitmap != null) {
+                mView.setImageBitmap(bitmap);
+            }
+        }
+
+        private void detach() {
+            if (mRequest != null) {
+                removeTarget(mRequest, this);
+                mRequest = null;
+            }
+        }
+
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            // RecyclerView may re-attach a cached row without binding it again
+            if (mPhotoFile != null && !mDelivered && mRequest == null) {
+                start(this);
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            detach();
+        }
+    }
+}
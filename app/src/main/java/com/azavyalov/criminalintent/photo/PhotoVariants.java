@@ -0,0 +1,173 @@
+package com.azavyalov.criminalintent.photo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.azavyalov.criminalintent.PictureUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Создаёт уменьшенные копии фотографии рядом с оригиналом: миниатюру для
+ * списка и превью для карточки преступления. Экраны читают эти копии и не
+ * декодируют полноразмерный JPEG. Оригиналы и копии переписываются только
+ * в потоке photo-variants, так что две задачи не пишут один файл.
+ */
+public class PhotoVariants {
+
+    private static final String TAG = "PhotoVariants";
+    public static final int THUMBNAIL_SIZE = 256;
+    public static final int PREVIEW_SIZE = 1024;
+    private static final int QUALITY = 85;
+
+    private static PhotoVariants sPhotoVariants;
+
+    private final Context mContext;
+    private final PhotoCache mPhotoCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "photo-variants");
+                }
+            });
+
+    public static synchronized PhotoVariants getInstance(Context context) {
+        if (sPhotoVariants == null) {
+            sPhotoVariants = new PhotoVariants(context.getApplicationContext());
+        }
+        return sPhotoVariants;
+    }
+
+    private PhotoVariants(Context context) {
+        mContext = context;
+        mPhotoCache = PhotoCache.getInstance(context);
+    }
+
+    /**
+     * Обрабатывает только что снятую фотографию в фоновом потоке: сжимает её
+     * через PhotoCompactor и пересоздаёт миниатюру и превью. onDone, если не null,
+     * вызывается в главном потоке, даже если создать копии не удалось.
+     */
+    public Future<?> generate(final File photoFile, final File thumbnailFile,
+                              final File previewFile, final Runnable onDone) {
+        return mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PhotoCompactor.getInstance(mContext).compact(photoFile);
+                    generateNow(photoFile, thumbnailFile, previewFile);
+                } finally {
+                    if (onDone != null) {
+                        mMainHandler.post(onDone);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Выполняет task в потоке photo-variants после уже поставленных задач и
+     * ждёт результата. Для фоновых проходов, которые переписывают фотографии
+     * или копии; из самого потока photo-variants вызывать нельзя.
+     */
+    <T> T runNow(Callable<T> task) throws InterruptedException {
+        try {
+            return mExecutor.submit(task).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Синхронная версия generate. Вызывается только в потоке photo-variants,
+     * из задачи generate() или runNow().
+     * Возвращает false, если оригинала нет или его не удалось декодировать.
+     */
+    public boolean generateNow(File photoFile, File thumbnailFile, File previewFile) {
+        // Stale copies of a previous photo must never be shown for the new one
+        thumbnailFile.delete();
+        previewFile.delete();
+        mPhotoCache.invalidate(photoFile);
+        mPhotoCache.invalidate(thumbnailFile);
+        mPhotoCache.invalidate(previewFile);
+        if (!photoFile.exists()) {
+            return false;
+        }
+
+        Bitmap preview = PictureUtils.getScaledBitmap(photoFile.getPath(),
+                PREVIEW_SIZE, PREVIEW_SIZE, PictureUtils.PHOTO_CONFIG, true);
+        if (preview == null) {
+            return false;
+        }
+        float scale = Math.min(1f, (float) THUMBNAIL_SIZE /
+                Math.max(preview.getWidth(), preview.getHeight()));
+        Bitmap thumbnail = Bitmap.createScaledBitmap(preview,
+                Math.max(1, Math.round(preview.getWidth() * scale)),
+                Math.max(1, Math.round(preview.getHeight() * scale)),
+                true);
+        // The thumbnail goes first: it is what the list is waiting for
+        boolean written = write(thumbnail, thumbnailFile, Bitmap.CompressFormat.JPEG, QUALITY)
+                && write(preview, previewFile, Bitmap.CompressFormat.JPEG, QUALITY);
+
+        BitmapPool pool = BitmapPool.getInstance();
+        if (thumbnail != preview) {
+            pool.put(thumbnail);
+        }
+        pool.put(preview);
+        return written;
+    }
+
+    // Через временный файл, чтобы читатель никогда не увидел недописанный JPEG
+    static boolean write(Bitmap bitmap, File file, Bitmap.CompressFormat format, int quality) {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            bitmap.compress(format, quality, out);
+            out.close();
+            out = null;
+            if (temp.renameTo(file)) {
+                return true;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+        temp.delete();
+        return false;
+    }
+}
@@ -0,0 +1,572 @@
+package com.azavyalov.criminalintent.photo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import com.azavyalov.criminalintent.metrics.Histogram;
+import com.azavyalov.criminalintent.metrics.Metrics;
+import com.azavyalov.criminalintent.metrics.Timer;
+import com.azavyalov.criminalintent.metrics.WorkType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Масштабируемый просмотр фотографии. Целиком в памяти держится только копия
+ * под размер экрана; при увеличении видимая часть декодируется плитками через
+ * BitmapRegionDecoder с нужным inSampleSize, поэтому расход памяти ограничен
+ * кешем плиток при любом разрешении снимка.
+ */
+public class TiledPhotoView extends View {
+
+    private static final String TAG = "TiledPhotoView";
+    private static final int TILE_SIZE = 512;
+    private static final int TILE_CACHE_BYTES = 16 * 1024 * 1024;
+    // Enough to refill a screen of tiles after a zoom without allocating
+    private static final int MAX_POOLED_TILES = 8;
+    // How far past full resolution the photo can be zoomed
+    private static final float MAX_ZOOM = 2f;
+    private static final Bitmap.Config TILE_CONFIG = Bitmap.Config.RGB_565;
+    private static final Timer DECODE_TILE = Metrics.timer("TiledPhotoView.decodeTile",
+            WorkType.DECODE);
+    private static final Histogram DECODED_BYTES = Metrics.histogram("TiledPhotoView.decodedBytes");
+
+    // BitmapRegionDecoder serializes decodes internally, so one thread is enough
+    private static final ExecutorService sTileExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "photo-tiles");
+                }
+            });
+    private static final TilePool sTilePool = new TilePool();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mImageRect = new RectF();
+    private final RectF mTileRect = new RectF();
+    private final Rect mTileSource = new Rect();
+    // Reused on every draw; a Tile is only allocated when one has to be decoded
+    private final Rect mVisible = new Rect();
+    private final Tile mProbe = new Tile();
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+
+    // Main thread only. An evicted tile may still be in the frame being rendered, so it
+    // goes back to the pool only after the next frame, see recycleEvictedTiles()
+    private final LruCache<Tile, Bitmap> mTiles = new LruCache<Tile, Bitmap>(TILE_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(Tile tile, Bitmap bitmap) {
+            return bitmap.getAllocationByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Tile tile, Bitmap oldValue, Bitmap newValue) {
+            mEvictedTiles.add(oldValue);
+        }
+    };
+    private final Set<Tile> mPending = new HashSet<>();
+    private final List<Bitmap> mEvictedTiles = new ArrayList<>();
+    private final List<Bitmap> mRetiredTiles = new ArrayList<>();
+
+    private File mPhotoFile;
+    private BitmapRegionDecoder mDecoder;
+    private Bitmap mBase;
+    private int mImageWidth;
+    private int mImageHeight;
+
+    private float mScale;
+    private float mMinScale;
+    private float mMaxScale;
+    private float mTranslateX;
+    private float mTranslateY;
+
+    // Read by the decode thread to drop tiles that are no longer wanted
+    private volatile int mGeneration;
+    private volatile Viewport mViewport;
+
+    private long mTileHitCount;
+    private long mTileMissCount;
+
+    public TiledPhotoView(Context context) {
+        this(context, null);
+    }
+
+    public TiledPhotoView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mScaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        zoomTo(mScale * detector.getScaleFactor(),
+                                detector.getFocusX(), detector.getFocusY());
+                        return true;
+                    }
+                });
+        mGestureDetector = new GestureDetector(context,
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onScroll(MotionEvent e1, MotionEvent e2,
+                                            float distanceX, float distanceY) {
+                        mTranslateX -= distanceX;
+                        mTranslateY -= distanceY;
+                        clampTranslation();
+                        invalidate();
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onDoubleTap(MotionEvent e) {
+                        // Toggle between the whole photo and full resolution
+                        float target = mScale < 1f && mMinScale < 1f ? 1f : mMinScale;
+                        zoomTo(target, e.getX(), e.getY());
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Показывает фотографию. Декодер и копия под экран готовятся в фоне.
+     */
+    public void setPhotoFile(final File photoFile) {
+        release();
+        mPhotoFile = photoFile;
+        if (photoFile == null) {
+            invalidate();
+            return;
+        }
+        final int generation = mGeneration;
+        final Context context = getContext().getApplicationContext();
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        final int baseWidth = getWidth() > 0 ? getWidth() : metrics.widthPixels;
+        final int baseHeight = getHeight() > 0 ? getHeight() : metrics.heightPixels;
+        sTileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final BitmapRegionDecoder decoder;
+                try {
+                    decoder = BitmapRegionDecoder.newInstance(photoFile.getPath(), false);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to open " + photoFile, e);
+                    return;
+                }
+                final Bitmap base = PhotoCache.getInstance(context)
+                        .get(photoFile, baseWidth, baseHeight);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            recycle(decoder);
+                            return;
+                        }
+                        onPhotoReady(decoder, base);
+                    }
+                });
+            }
+        });
+    }
+
+    public long getTileHitCount() {
+        return mTileHitCount;
+    }
+
+    public long getTileMissCount() {
+        return mTileMissCount;
+    }
+
+    private void onPhotoReady(BitmapRegionDecoder decoder, Bitmap base) {
+        mDecoder = decoder;
+        mBase = base;
+        mImageWidth = decoder.getWidth();
+        mImageHeight = decoder.getHeight();
+        fitToView();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mDecoder != null) {
+            fitToView();
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mPhotoFile != null && mDecoder == null) {
+            setPhotoFile(mPhotoFile);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        File photoFile = mPhotoFile;
+        release();
+        // No frame will tell when the last one is done with them; leave them to the GC
+        mEvictedTiles.clear();
+        mRetiredTiles.clear();
+        // Reopened if the view is attached again
+        mPhotoFile = photoFile;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        mScaleDetector.onTouchEvent(event);
+        mGestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        recycleEvictedTiles();
+        if (mDecoder == null) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(mTranslateX, mTranslateY);
+        canvas.scale(mScale, mScale);
+        mImageRect.set(0, 0, mImageWidth, mImageHeight);
+        if (mBase != null) {
+            canvas.drawBitmap(mBase, null, mImageRect, mPaint);
+        }
+
+        int sampleSize = getSampleSize(mScale);
+        // Tiles only pay off once they are sharper than the screen-sized copy
+        float baseSampleSize = mBase == null ? Float.MAX_VALUE
+                : (float) mImageWidth / mBase.getWidth();
+        if (sampleSize < baseSampleSize) {
+            drawTiles(canvas, sampleSize);
+        } else {
+            mViewport = null;
+        }
+        canvas.restore();
+    }
+
+    // Tiles evicted before the previous frame are no longer referenced by any frame.
+    // Pooling them at once could let a decode write into a bitmap that is still on screen.
+    private void recycleEvictedTiles() {
+        for (int i = 0; i < mRetiredTiles.size(); i++) {
+            sTilePool.put(mRetiredTiles.get(i));
+        }
+        mRetiredTiles.clear();
+        mRetiredTiles.addAll(mEvictedTiles);
+        mEvictedTiles.clear();
+    }
+
+    private void drawTiles(Canvas canvas, int sampleSize) {
+        mVisible.set(
+                Math.max(0, (int) Math.floor(-mTranslateX / mScale)),
+                Math.max(0, (int) Math.floor(-mTranslateY / mScale)),
+                Math.min(mImageWidth, (int) Math.ceil((getWidth() - mTranslateX) / mScale)),
+                Math.min(mImageHeight, (int) Math.ceil((getHeight() - mTranslateY) / mScale)));
+        if (mVisible.isEmpty()) {
+            return;
+        }
+        int span = TILE_SIZE * sampleSize;
+        int firstColumn = mVisible.left / span;
+        int firstRow = mVisible.top / span;
+        int lastColumn = (mVisible.right - 1) / span;
+        int lastRow = (mVisible.bottom - 1) / span;
+        // Replaced only when a row or column of tiles enters or leaves the screen
+        Viewport viewport = mViewport;
+        if (viewport == null
+                || !viewport.matches(sampleSize, firstColumn, firstRow, lastColumn, lastRow)) {
+            mViewport = new Viewport(sampleSize, firstColumn, firstRow, lastColumn, lastRow);
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                mProbe.set(sampleSize, column, row, mImageWidth, mImageHeight);
+                Bitmap bitmap = mTiles.get(mProbe);
+                if (bitmap != null) {
+                    mTileHitCount++;
+                    // Edge tiles fill only the top-left part of the bitmap
+                    mTileSource.set(0, 0, mProbe.getDecodedWidth(), mProbe.getDecodedHeight());
+                    mTileRect.set(mProbe.mRegion);
+                    canvas.drawBitmap(bitmap, mTileSource, mTileRect, mPaint);
+                } else {
+                    requestTile(mProbe);
+                }
+            }
+        }
+    }
+
+    private void requestTile(Tile probe) {
+        if (mPending.contains(probe)) {
+            return;
+        }
+        final Tile tile = new Tile(probe);
+        mPending.add(tile);
+        mTileMissCount++;
+        final int generation = mGeneration;
+        final BitmapRegionDecoder decoder = mDecoder;
+        sTileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = isWanted(tile, generation) ? decodeTile(decoder, tile) : null;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPending.remove(tile);
+                        if (bitmap == null) {
+                            return;
+                        }
+                        if (generation != mGeneration) {
+                            sTilePool.put(bitmap);
+                            return;
+                        }
+                        mTiles.put(tile, bitmap);
+                        invalidate();
+                    }
+                });
+            }
+        });
+    }
+
+    // Decode thread: skip tiles scrolled away from or left behind by a zoom
+    private boolean isWanted(Tile tile, int generation) {
+        Viewport viewport = mViewport;
+        return generation == mGeneration && viewport != null && viewport.contains(tile);
+    }
+
+    private static Bitmap decodeTile(BitmapRegionDecoder decoder, Tile tile) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = tile.mSampleSize;
+        options.inPreferredConfig = TILE_CONFIG;
+        options.inMutable = true;
+        // Every tile is decoded into a full TILE_SIZE bitmap, so any of them can be reused
+        options.inBitmap = sTilePool.get();
+        long start = DECODE_TILE.start();
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(tile.mRegion, options);
+        } catch (IllegalArgumentException e) {
+            // Some decoders reject inBitmap; the result is then exactly the decoded size
+            sTilePool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decoder.decodeRegion(tile.mRegion, options);
+        } finally {
+            DECODE_TILE.stop(start);
+        }
+        if (bitmap != null && Metrics.isEnabled()) {
+            DECODED_BYTES.record(bitmap.getByteCount());
+        }
+        return bitmap;
+    }
+
+    private void release() {
+        mGeneration++;
+        mViewport = null;
+        if (mDecoder != null) {
+            recycle(mDecoder);
+            mDecoder = null;
+        }
+        mTiles.evictAll();
+        mPending.clear();
+        // Owned by PhotoCache, not ours to pool
+        mBase = null;
+        mPhotoFile = null;
+    }
+
+    private static void recycle(final BitmapRegionDecoder decoder) {
+        // Queued behind any tile of this decoder that is still being decoded
+        sTileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                decoder.recycle();
+            }
+        });
+    }
+
+    private void fitToView() {
+        if (getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        mMinScale = Math.min((float) getWidth() / mImageWidth, (float) getHeight() / mImageHeight);
+        mMaxScale = Math.max(mMinScale, MAX_ZOOM);
+        mScale = mMinScale;
+        clampTranslation();
+    }
+
+    private void zoomTo(float scale, float focusX, float focusY) {
+        float newScale = Math.max(mMinScale, Math.min(mMaxScale, scale));
+        // Keep the image point under the focus where it is
+        mTranslateX = focusX - (focusX - mTranslateX) * newScale / mScale;
+        mTranslateY = focusY - (focusY - mTranslateY) * newScale / mScale;
+        mScale = newScale;
+        clampTranslation();
+        invalidate();
+    }
+
+    private void clampTranslation() {
+        float width = mImageWidth * mScale;
+        float height = mImageHeight * mScale;
+        mTranslateX = width <= getWidth() ? (getWidth() - width) / 2
+                : Math.max(getWidth() - width, Math.min(0, mTranslateX));
+        mTranslateY = height <= getHeight() ? (getHeight() - height) / 2
+                : Math.max(getHeight() - height, Math.min(0, mTranslateY));
+    }
+
+    // Largest power of two that still gives at least one decoded pixel per screen pixel
+    private static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 <= 1 / scale) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Visible tiles, inclusive. Immutable, so the decode thread can read it without locking.
+    private static final class Viewport {
+
+        private final int mSampleSize;
+        private final int mFirstColumn;
+        private final int mFirstRow;
+        private final int mLastColumn;
+        private final int mLastRow;
+
+        private Viewport(int sampleSize, int firstColumn, int firstRow, int lastColumn, int lastRow) {
+            mSampleSize = sampleSize;
+            mFirstColumn = firstColumn;
+            mFirstRow = firstRow;
+            mLastColumn = lastColumn;
+            mLastRow = lastRow;
+        }
+
+        private boolean matches(int sampleSize, int firstColumn, int firstRow,
+                                int lastColumn, int lastRow) {
+            return mSampleSize == sampleSize && mFirstColumn == firstColumn
+                    && mFirstRow == firstRow && mLastColumn == lastColumn && mLastRow == lastRow;
+        }
+
+        private boolean contains(Tile tile) {
+            return mSampleSize == tile.mSampleSize
+                    && tile.mColumn >= mFirstColumn && tile.mColumn <= mLastColumn
+                    && tile.mRow >= mFirstRow && tile.mRow <= mLastRow;
+        }
+    }
+
+    // Identified by sample size and grid position; the region follows from them.
+    // Only mProbe is ever changed, and it is never stored in mTiles or mPending.
+    private static final class Tile {
+
+        private int mSampleSize;
+        private int mColumn;
+        private int mRow;
+        private final Rect mRegion = new Rect();
+
+        private Tile() {
+        }
+
+        private Tile(Tile tile) {
+            mSampleSize = tile.mSampleSize;
+            mColumn = tile.mColumn;
+            mRow = tile.mRow;
+            mRegion.set(tile.mRegion);
+        }
+
+        private void set(int sampleSize, int column, int row, int imageWidth, int imageHeight) {
+            mSampleSize = sampleSize;
+            mColumn = column;
+            mRow = row;
+            int span = TILE_SIZE * sampleSize;
+            mRegion.set(column * span, row * span,
+                    Math.min((column + 1) * span, imageWidth), Math.min((row + 1) * span, imageHeight));
+        }
+
+        private int getDecodedWidth() {
+            return (mRegion.width() + mSampleSize - 1) / mSampleSize;
+        }
+
+        private int getDecodedHeight() {
+            return (mRegion.height() + mSampleSize - 1) / mSampleSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+            Tile tile = (Tile) o;
+            return mSampleSize == tile.mSampleSize && mColumn == tile.mColumn && mRow == tile.mRow;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * mSampleSize + mColumn) * 31 + mRow;
+        }
+    }
+
+    /**
+     * Bitmap ровно TILE_SIZE x TILE_SIZE в TILE_CONFIG. BitmapRegionDecoder не
+     * меняет размер inBitmap, а пишет регион в его левый верхний угол, поэтому
+     * общий BitmapPool, подбирающий Bitmap по числу байт, для плиток не годится.
+     */
+    private static final class TilePool {
+
+        private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>(MAX_POOLED_TILES);
+
+        private Bitmap get() {
+            synchronized (mBitmaps) {
+                Bitmap bitmap = mBitmaps.pollLast();
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            }
+            return Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, TILE_CONFIG);
+        }
+
+        private void put(Bitmap bitmap) {
+            if (bitmap == null || bitmap.isRecycled()) {
+                return;
+            }
+            if (bitmap.isMutable() && bitmap.getConfig() == TILE_CONFIG
+                    && bitmap.getWidth() == TILE_SIZE && bitmap.getHeight() == TILE_SIZE) {
+                synchronized (mBitmaps) {
+                    if (mBitmaps.size() < MAX_POOLED_TILES) {
+                        mBitmaps.addLast(bitmap);
+                        return;
+                    }
+                }
+            }
+            // Any bitmap still fits BitmapFactory decodes of its size or smaller
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+}
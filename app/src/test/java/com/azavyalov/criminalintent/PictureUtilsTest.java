@@ -0,0 +1,36 @@
+package com.azavyalov.criminalintent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PictureUtilsTest {
+
+    @Test
+    public void sampleSizeIsPowerOfTwo() {
+        // 3.7x larger than the screen: 4 would undershoot, so 2 and scale the rest
+        assertEquals(2, PictureUtils.calculateInSampleSize(4000, 3000, 1080, 1920));
+        assertEquals(4, PictureUtils.calculateInSampleSize(4000, 3000, 1000, 1000));
+        assertEquals(8, PictureUtils.calculateInSampleSize(4000, 3000, 400, 300));
+    }
+
+    @Test
+    public void sampledImageCoversTarget() {
+        int[][] cases = {{4032, 3024, 720, 1280}, {3024, 4032, 300, 300}, {8000, 6000, 97, 61}};
+        for (int[] c : cases) {
+            int sample = PictureUtils.calculateInSampleSize(c[0], c[1], c[2], c[3]);
+            boolean covers = c[0] / sample >= c[2] || c[1] / sample >= c[3];
+            boolean nextCovers = c[0] / (sample * 2) >= c[2] || c[1] / (sample * 2) >= c[3];
+            assertTrue(covers);
+            assertFalse(nextCovers);
+        }
+    }
+
+    @Test
+    public void noSamplingForSmallImages() {
+        assertEquals(1, PictureUtils.calculateInSampleSize(640, 480, 1080, 1920));
+        assertEquals(1, PictureUtils.calculateInSampleSize(640, 480, 0, 0));
+    }
+}
@@ -0,0 +1,55 @@
+package com.azavyalov.criminalintent.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = Histogram.getBucket(value);
+            assertTrue(value <= Histogram.getUpperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value > Histogram.getUpperBound(bucket - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.getUpperBound(Histogram.getBucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesWithinAnEighth() {
+        Random random = new Random(3);
+        Histogram histogram = new Histogram("test");
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal-ish, like operation latencies in nanoseconds
+            values[i] = (long) Math.exp(10 + 2 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{50, 95, 99, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.getPercentile(percentile);
+            assertTrue(estimate >= exact);
+            assertTrue(estimate <= exact + exact / 8 + 1);
+        }
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+    }
+
+    @Test
+    public void emptyAfterReset() {
+        Histogram histogram = new Histogram("test");
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+}
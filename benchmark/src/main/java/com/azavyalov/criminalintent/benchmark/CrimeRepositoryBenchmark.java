@@ -0,0 +1,197 @@
+package com.azavyalov.criminalintent.benchmark;
+
+import com.azavyalov.criminalintent.Crime;
+import com.azavyalov.criminalintent.CrimeChange;
+import com.azavyalov.criminalintent.CrimeIdList;
+import com.azavyalov.criminalintent.CrimePage;
+import com.azavyalov.criminalintent.CrimeQuery;
+import com.azavyalov.criminalintent.database.CrimeDbSchema;
+import com.azavyalov.criminalintent.database.JdbcCrimeRepository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Основные операции хранилища на таблицах разного размера.
+ * Запуск: ./gradlew :benchmark:jmh -PjmhArgs="CrimeRepositoryBenchmark -p rowCount=1000"
+ * Каждый прогон работает с копией заранее заполненной базы, так что запись
+ * в одном бенчмарке не влияет на другие.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrimeRepositoryBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int FILL_BATCH = 10000;
+    // Power of two, so the next index is a mask instead of a modulo
+    private static final int SAMPLES = 4096;
+    private static final String[] SUSPECTS = {null, "Smith", "Ivanov", "Garcia", "Chen"};
+
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private File mDatabaseFile;
+    private JdbcCrimeRepository mRepository;
+    private CrimeIdList mIds;
+    private final int[] mPositions = new int[SAMPLES];
+    private final List<Crime> mUpdates = new ArrayList<>();
+    private int mNext;
+    private CrimePage.Key mPageKey;
+    private Random mRandom;
+
+    /**
+     * Строка, добавленная insert(). Удаляется сразу после вызова, вне замера,
+     * так что таблица всё время остаётся размера rowCount.
+     */
+    @State(Scope.Thread)
+    public static class Inserted {
+
+        private final List<UUID> mIds = new ArrayList<>(1);
+
+        // Per-invocation fixtures make JMH time each call separately, so only insert() uses this state
+        @TearDown(Level.Invocation)
+        public void delete(CrimeRepositoryBenchmark benchmark) {
+            if (!mIds.isEmpty()) {
+                benchmark.mRepository.deleteCrimes(mIds);
+                mIds.clear();
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File template = getTemplate(rowCount);
+        mDatabaseFile = File.createTempFile("crimes-benchmark", ".db");
+        Files.copy(template.toPath(), mDatabaseFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        mRepository = new JdbcCrimeRepository(mDatabaseFile);
+
+        mIds = mRepository.getCrimeIds();
+        mRandom = new Random(rowCount);
+        for (int i = 0; i < SAMPLES; i++) {
+            mPositions[i] = mRandom.nextInt(mIds.size());
+        }
+        for (int i = 0; i < Math.min(SAMPLES, mIds.size()); i++) {
+            mUpdates.add(mRepository.getCrime(mIds.get(mPositions[i])));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mRepository.close();
+        delete(mDatabaseFile);
+    }
+
+    @Benchmark
+    public void insert(Inserted inserted) {
+        Crime crime = createCrime(mRandom);
+        mRepository.addCrime(crime);
+        inserted.mIds.add(crime.getId());
+    }
+
+    @Benchmark
+    public Crime pointLookup() {
+        return mRepository.getCrime(mIds.get(nextPosition()));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Crime> fullList() {
+        return mRepository.getCrimes();
+    }
+
+    // Jump to an arbitrary position, as when the list is opened or scrolled fast
+    @Benchmark
+    public CrimePage pageAt() {
+        return mRepository.getCrimesPageAt(CrimeQuery.ALL, nextPosition(), PAGE_SIZE);
+    }
+
+    // Next page while scrolling, wrapping around at the end of the table
+    @Benchmark
+    public CrimePage pageAfter() {
+        CrimePage page = mRepository.getCrimesPageAfter(CrimeQuery.ALL, mPageKey, PAGE_SIZE);
+        mPageKey = page.size() < PAGE_SIZE ? null : page.getLastKey();
+        return page;
+    }
+
+    @Benchmark
+    public void update() {
+        Crime crime = mUpdates.get(mNext++ % mUpdates.size());
+        crime.setSolved(!crime.isSolved());
+        mRepository.updateCrime(crime, CrimeChange.FIELD_SOLVED);
+    }
+
+    private int nextPosition() {
+        return mPositions[mNext++ & (SAMPLES - 1)];
+    }
+
+    // Filling a million rows takes a while, so each size is built once and reused across runs
+    private static File getTemplate(int rowCount) throws IOException {
+        File template = new File(System.getProperty("java.io.tmpdir"),
+                "crimes-" + rowCount + "-v" + CrimeDbSchema.VERSION + ".db");
+        if (template.exists()) {
+            return template;
+        }
+        File partial = new File(template.getPath() + ".partial");
+        delete(partial);
+        JdbcCrimeRepository repository = new JdbcCrimeRepository(partial);
+        try {
+            Random random = new Random(42);
+            List<Crime> batch = new ArrayList<>(FILL_BATCH);
+            for (int i = 0; i < rowCount; i++) {
+                batch.add(createCrime(random));
+                if (batch.size() == FILL_BATCH || i == rowCount - 1) {
+                    repository.addCrimes(batch);
+                    batch.clear();
+                }
+            }
+        } finally {
+            // Closing the last connection checkpoints the WAL into the main file
+            repository.close();
+        }
+        Files.move(partial.toPath(), template.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return template;
+    }
+
+    // About a year of crimes, a quarter solved and some with suspects and photos
+    private static Crime createCrime(Random random) {
+        Crime crime = new Crime();
+        crime.setTitle("Crime #" + random.nextInt(1000000));
+        crime.setDate(new Date(1577836800000L + (long) random.nextInt(365 * 24 * 60) * 60000));
+        crime.setSolved(random.nextInt(4) == 0);
+        crime.setSuspect(SUSPECTS[random.nextInt(SUSPECTS.length)]);
+        crime.setHasPhoto(random.nextInt(3) == 0);
+        return crime;
+    }
+
+    private static void delete(File databaseFile) {
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            new File(databaseFile.getPath() + suffix).delete();
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.azavyalov.criminalintent.database;
+
+import com.azavyalov.criminalintent.Crime;
+import com.azavyalov.criminalintent.CrimeIdList;
+import com.azavyalov.criminalintent.CrimePage;
+import com.azavyalov.criminalintent.CrimeQuery;
+import com.azavyalov.criminalintent.CrimeRepository;
+import com.azavyalov.criminalintent.CrimeStats;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeSearchTable;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.UuidCodec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * CrimeRepository поверх файловой SQLite через JDBC, для запуска на JVM.
+ * Схема и SQL те же, что у CrimeLab, но без кеша объектов и уведомлений,
+ * поэтому замеры показывают стоимость самого хранилища.
+ * Не потокобезопасен.
+ */
+public class JdbcCrimeRepository implements CrimeRepository, Closeable {
+
+    // Column positions in CrimeTable.Projections.ALL, which every full-row query selects
+    private static final int UUID_MSB = indexOf(Cols.UUID_MSB);
+    private static final int UUID_LSB = indexOf(Cols.UUID_LSB);
+    private static final int TITLE = indexOf(Cols.TITLE);
+    private static final int DATE = indexOf(Cols.DATE);
+    private static final int SOLVED = indexOf(Cols.SOLVED);
+    private static final int SUSPECT = indexOf(Cols.SUSPECT);
+    private static final int HAS_PHOTO = indexOf(Cols.HAS_PHOTO);
+
+    private final Connection mConnection;
+    // Compiled once per SQL string, like SQLiteDatabase's statement cache
+    private final Map<String, PreparedStatement> mStatements = new HashMap<>();
+
+    public JdbcCrimeRepository(File databaseFile) {
+        try {
+            mConnection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getPath());
+            Statement statement = mConnection.createStatement();
+            try {
+                // Android's defaults since 9.0 for a database opened with WAL
+                statement.execute("pragma journal_mode = wal");
+                statement.execute("pragma synchronous = normal");
+            } finally {
+                statement.close();
+            }
+            createSchemaIfNeeded();
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    // Migrations stay in CrimeBaseHelper; a JVM database is always created at the current version
+    private void createSchemaIfNeeded() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("pragma user_version");
+            int version = result.next() ? result.getInt(1) : 0;
+            result.close();
+            if (version == CrimeDbSchema.VERSION) {
+                return;
+            }
+            if (version != 0) {
+                throw new IllegalStateException("Unsupported schema version " + version);
+            }
+            mConnection.setAutoCommit(false);
+            try {
+                statement.execute(CrimeTable.getCreateTable(CrimeTable.NAME));
+                for (String sql : CrimeTable.getCreateIndexes()) {
+                    statement.execute(sql);
+                }
+                for (String sql : CrimeSearchTable.getCreateStatements()) {
+                    statement.execute(sql);
+                }
+                statement.execute("pragma user_version = " + CrimeDbSchema.VERSION);
+                mConnection.commit();
+            } finally {
+                endTransaction();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public void addCrime(Crime crime) {
+        try {
+            PreparedStatement insert = getStatement(CrimeTable.Statements.INSERT);
+            bindId(insert, 1, crime.getId());
+            bindCrimeFields(insert, 3, crime);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public void addCrimes(Collection<Crime> crimes) {
+        try {
+            PreparedStatement insert = getStatement(CrimeTable.Statements.INSERT);
+            mConnection.setAutoCommit(false);
+            try {
+                for (Crime crime : crimes) {
+                    bindId(insert, 1, crime.getId());
+                    bindCrimeFields(insert, 3, crime);
+                    insert.executeUpdate();
+                }
+                mConnection.commit();
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public Crime getCrime(UUID id) {
+        try {
+            ResultSet result = query(CrimeTable.Projections.ALL, UuidCodec.WHERE_ID,
+                    UuidCodec.getWhereArgs(id), null, null);
+            try {
+                return result.next() ? readCrime(result) : null;
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public List<Crime> getCrimes() {
+        try {
+            ResultSet result = query(CrimeTable.Projections.ALL, null, null,
+                    CrimeQuery.ALL.getOrderBy(false), null);
+            return readCrimes(result);
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public CrimeIdList getCrimeIds() {
+        try {
+            ResultSet result = query(CrimeTable.Projections.ID_AND_DATE, null, null,
+                    CrimeQuery.ALL.getOrderBy(false), null);
+            try {
+                // A result set has no row count up front; the list grows as it reads
+                CrimeIdList ids = new CrimeIdList(0);
+                while (result.next()) {
+                    ids.add(UuidCodec.fromBits(result.getLong(1), result.getLong(2)),
+                            result.getLong(3));
+                }
+                return ids;
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public int getCrimeCount(CrimeQuery query) {
+        try {
+            ResultSet result = query(new String[]{"count(*)"}, query.getWhere(),
+                    query.getWhereArgs(), null, null);
+            try {
+                result.next();
+                return result.getInt(1);
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public CrimePage getCrimesPageAt(CrimeQuery query, int position, int limit) {
+        if (position <= 0) {
+            return getCrimesPageAfter(query, null, limit);
+        }
+        CrimePage.Key key;
+        try {
+            ResultSet result = query(CrimeTable.Projections.PAGE_KEY, query.getWhere(),
+                    query.getWhereArgs(), query.getOrderBy(false), (position - 1) + ",1");
+            try {
+                if (!result.next()) {
+                    return new CrimePage(new ArrayList<Crime>(), null, null);
+                }
+                key = readPageKey(result, query.getSort());
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+        return getCrimesPageAfter(query, key, limit);
+    }
+
+    @Override
+    public CrimePage getCrimesPageAfter(CrimeQuery query, CrimePage.Key key, int limit) {
+        return loadPage(query, key, limit, false);
+    }
+
+    @Override
+    public CrimePage getCrimesPageBefore(CrimeQuery query, CrimePage.Key key, int limit) {
+        return loadPage(query, key, limit, true);
+    }
+
+    private CrimePage loadPage(CrimeQuery query, CrimePage.Key key, int limit, boolean reversed) {
+        String whereClause = query.getWhere();
+        String[] whereArgs = query.getWhereArgs();
+        if (key != null) {
+            String keyWhere = query.getKeyWhere(key, reversed);
+            whereClause = whereClause == null ? keyWhere : whereClause + " AND " + keyWhere;
+            whereArgs = concat(whereArgs, query.getKeyArgs(key));
+        }
+        List<Crime> crimes = new ArrayList<>();
+        CrimePage.Key firstKey = null;
+        CrimePage.Key lastKey = null;
+        try {
+            ResultSet result = query(CrimeTable.Projections.ALL, whereClause, whereArgs,
+                    query.getOrderBy(reversed), String.valueOf(limit));
+            try {
+                while (result.next()) {
+                    crimes.add(readCrime(result));
+                    lastKey = readPageKey(result, query.getSort());
+                    if (firstKey == null) {
+                        firstKey = lastKey;
+                    }
+                }
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+
+        if (reversed) {
+            Collections.reverse(crimes);
+            return new CrimePage(crimes, lastKey, firstKey);
+        }
+        return new CrimePage(crimes, firstKey, lastKey);
+    }
+
+    @Override
+    public List<Crime> search(String query, int offset, int limit) {
+        String match = CrimeSearchTable.toMatchQuery(query);
+        if (match.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            PreparedStatement search = getStatement(CrimeSearchTable.Statements.SEARCH);
+            search.setString(1, match);
+            search.setInt(2, limit);
+            search.setInt(3, offset);
+            return readCrimes(search.executeQuery());
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public void updateCrime(Crime crime, int changedFields) {
+        try {
+            PreparedStatement update = getStatement(CrimeTable.Statements.UPDATE);
+            bindCrimeFields(update, 1, crime);
+            bindId(update, 6, crime.getId());
+            update.executeUpdate();
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public void updateCrimes(Collection<Crime> crimes, int changedFields) {
+        try {
+            PreparedStatement update = getStatement(CrimeTable.Statements.UPDATE);
+            mConnection.setAutoCommit(false);
+            try {
+                for (Crime crime : crimes) {
+                    bindCrimeFields(update, 1, crime);
+                    bindId(update, 6, crime.getId());
+                    update.executeUpdate();
+                }
+                mConnection.commit();
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public void deleteCrimes(Collection<UUID> ids) {
+        try {
+            PreparedStatement delete = getStatement(CrimeTable.Statements.DELETE);
+            mConnection.setAutoCommit(false);
+            try {
+                for (UUID id : ids) {
+                    bindId(delete, 1, id);
+                    delete.executeUpdate();
+                }
+                mConnection.commit();
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public CrimeStats getStats() {
+        try {
+            ResultSet result = getStatement(CrimeTable.Statements.STATS).executeQuery();
+            try {
+                result.next();
+                return new CrimeStats(result.getInt(1), result.getInt(2));
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    @Override
+    public List<CrimeStats.Bucket> getCountsBy(CrimeStats.Period period) {
+        List<CrimeStats.Bucket> buckets = new ArrayList<>();
+        try {
+            ResultSet result = getStatement(CrimeTable.Statements.countsBy(period)).executeQuery();
+            try {
+                while (result.next()) {
+                    buckets.add(new CrimeStats.Bucket(result.getString(1), result.getInt(2),
+                            result.getInt(3)));
+                }
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+        return Collections.unmodifiableList(buckets);
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (PreparedStatement statement : mStatements.values()) {
+                statement.close();
+            }
+            mStatements.clear();
+            mConnection.close();
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    // Same shape as SQLiteDatabase.query(); arguments are bound as strings there too
+    private ResultSet query(String[] projection, String whereClause, String[] whereArgs,
+                            String orderBy, String limit) throws SQLException {
+        StringBuilder sql = new StringBuilder("select ");
+        for (int i = 0; i < projection.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(projection[i]);
+        }
+        sql.append(" from ").append(CrimeTable.NAME);
+        if (whereClause != null) {
+            sql.append(" where ").append(whereClause);
+        }
+        if (orderBy != null) {
+            sql.append(" order by ").append(orderBy);
+        }
+        if (limit != null) {
+            sql.append(" limit ").append(limit);
+        }
+        PreparedStatement statement = getStatement(sql.toString());
+        if (whereArgs != null) {
+            for (int i = 0; i < whereArgs.length; i++) {
+                statement.setString(i + 1, whereArgs[i]);
+            }
+        }
+        return statement.executeQuery();
+    }
+
+    private PreparedStatement getStatement(String sql) throws SQLException {
+        PreparedStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    // Rolls back if commit() wasn't reached and returns to autocommit
+    private void endTransaction() throws SQLException {
+        try {
+            if (!mConnection.getAutoCommit()) {
+                mConnection.rollback();
+            }
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    private static List<Crime> readCrimes(ResultSet result) throws SQLException {
+        List<Crime> crimes = new ArrayList<>();
+        try {
+            while (result.next()) {
+                crimes.add(readCrime(result));
+            }
+        } finally {
+            result.close();
+        }
+        return crimes;
+    }
+
+    private static Crime readCrime(ResultSet result) throws SQLException {
+        Crime crime = new Crime(UuidCodec.fromBits(result.getLong(UUID_MSB),
+                result.getLong(UUID_LSB)));
+        crime.setTitle(result.getString(TITLE));
+        crime.setDate(new Date(result.getLong(DATE)));
+        crime.setSolved(result.getInt(SOLVED) != 0);
+        crime.setSuspect(result.getString(SUSPECT));
+        crime.setHasPhoto(result.getInt(HAS_PHOTO) != 0);
+        return crime;
+    }
+
+    // Works for both Projections.ALL and Projections.PAGE_KEY
+    private static CrimePage.Key readPageKey(ResultSet result, CrimeQuery.Sort sort)
+            throws SQLException {
+        if (sort == CrimeQuery.Sort.TITLE) {
+            return new CrimePage.Key(result.getString(Cols.TITLE), result.getLong(Cols.ID));
+        }
+        return new CrimePage.Key(result.getLong(Cols.DATE), result.getLong(Cols.ID));
+    }
+
+    private static void bindId(PreparedStatement statement, int index, UUID id)
+            throws SQLException {
+        statement.setLong(index, UuidCodec.getMostSignificantBits(id));
+        statement.setLong(index + 1, UuidCodec.getLeastSignificantBits(id));
+    }
+
+    // Binds title, date, solved, suspect and has_photo starting at the given parameter index
+    private static void bindCrimeFields(PreparedStatement statement, int index, Crime crime)
+            throws SQLException {
+        statement.setString(index, crime.getTitle());
+        statement.setLong(index + 1, crime.getDate().getTime());
+        statement.setInt(index + 2, crime.isSolved() ? 1 : 0);
+        statement.setString(index + 3, crime.getSuspect());
+        statement.setInt(index + 4, crime.hasPhoto() ? 1 : 0);
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (first == null) {
+            return second;
+        }
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    // JDBC columns are numbered from 1
+    private static int indexOf(String column) {
+        return Arrays.asList(CrimeTable.Projections.ALL).indexOf(column) + 1;
+    }
+
+    private static RuntimeException fail(SQLException e) {
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,151 @@
+package com.azavyalov.criminalintent.database;
+
+import com.azavyalov.criminalintent.Crime;
+import com.azavyalov.criminalintent.CrimeChange;
+import com.azavyalov.criminalintent.CrimePage;
+import com.azavyalov.criminalintent.CrimeQuery;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JdbcCrimeRepositoryTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDatabaseFile;
+    private JdbcCrimeRepository mRepository;
+
+    @Before
+    public void setUp() throws IOException {
+        mDatabaseFile = new File(mFolder.getRoot(), "crimes.db");
+        mRepository = new JdbcCrimeRepository(mDatabaseFile);
+    }
+
+    @After
+    public void tearDown() {
+        mRepository.close();
+    }
+
+    @Test
+    public void writesSurviveReopening() {
+        Crime crime = new Crime();
+        crime.setTitle("Stolen bike");
+        crime.setSuspect("Smith");
+        mRepository.addCrime(crime);
+        crime.setSolved(true);
+        crime.setTitle("Stolen bike, found");
+        mRepository.updateCrime(crime, CrimeChange.FIELD_SOLVED | CrimeChange.FIELD_TITLE);
+
+        mRepository.close();
+        mRepository = new JdbcCrimeRepository(mDatabaseFile);
+        Crime loaded = mRepository.getCrime(crime.getId());
+        assertEquals(crime.getId(), loaded.getId());
+        assertTrue(crime.contentEquals(loaded));
+        assertEquals(1, mRepository.getStats().getSolved());
+        assertEquals(1, mRepository.search("found", 0, 10).size());
+
+        mRepository.deleteCrimes(Collections.singletonList(crime.getId()));
+        assertNull(mRepository.getCrime(crime.getId()));
+        assertTrue(mRepository.search("bike", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void pagesMatchFullList() {
+        Random random = new Random(7);
+        List<Crime> crimes = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            Crime crime = new Crime();
+            crime.setTitle("Crime " + random.nextInt(10));
+            // Equal dates, so pages must fall back to _id to stay in order
+            crime.setDate(new Date(random.nextInt(5) * 1000L));
+            crimes.add(crime);
+        }
+        mRepository.addCrimes(crimes);
+
+        List<String> expected = ids(mRepository.getCrimes());
+        assertEquals(crimes.size(), expected.size());
+        assertEquals(expected.size(), mRepository.getCrimeIds().size());
+
+        List<String> paged = new ArrayList<>();
+        CrimePage page = mRepository.getCrimesPageAfter(CrimeQuery.ALL, null, 11);
+        while (!page.isEmpty()) {
+            paged.addAll(ids(page.getCrimes()));
+            page = mRepository.getCrimesPageAfter(CrimeQuery.ALL, page.getLastKey(), 11);
+        }
+        assertEquals(expected, paged);
+
+        page = mRepository.getCrimesPageAt(CrimeQuery.ALL, 50, 11);
+        assertEquals(expected.subList(50, 61), ids(page.getCrimes()));
+        page = mRepository.getCrimesPageBefore(CrimeQuery.ALL, page.getFirstKey(), 11);
+        assertEquals(expected.subList(39, 50), ids(page.getCrimes()));
+    }
+
+    @Test
+    public void everySortPagesBothWays() {
+        String[] titles = {null, "apple", "Apple", "banana", "Cherry"};
+        Random random = new Random(11);
+        List<Crime> crimes = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            Crime crime = new Crime();
+            crime.setTitle(titles[random.nextInt(titles.length)]);
+            crime.setDate(new Date(random.nextInt(8) * 1000L));
+            crime.setSolved(random.nextBoolean());
+            crimes.add(crime);
+        }
+        mRepository.addCrimes(crimes);
+
+        for (CrimeQuery.Sort sort : CrimeQuery.Sort.values()) {
+            for (boolean ascending : new boolean[]{true, false}) {
+                CrimeQuery query = new CrimeQuery.Builder().setSort(sort, ascending)
+                        .setSolved(true).build();
+                int count = mRepository.getCrimeCount(query);
+
+                List<Crime> forward = new ArrayList<>();
+                CrimePage page = mRepository.getCrimesPageAfter(query, null, 9);
+                while (!page.isEmpty()) {
+                    forward.addAll(page.getCrimes());
+                    page = mRepository.getCrimesPageAfter(query, page.getLastKey(), 9);
+                }
+                assertEquals(count, forward.size());
+                for (int i = 1; i < forward.size(); i++) {
+                    assertTrue(forward.get(i).isSolved());
+                    // Same row id on both sides, so only the sort column is compared
+                    assertTrue(query.compare(query.getKey(forward.get(i - 1), 0),
+                            query.getKey(forward.get(i), 0)) <= 0);
+                }
+
+                List<Crime> backward = new ArrayList<>();
+                page = mRepository.getCrimesPageAt(query, Math.max(0, count - 9), 9);
+                while (!page.isEmpty()) {
+                    backward.addAll(0, page.getCrimes());
+                    page = mRepository.getCrimesPageBefore(query, page.getFirstKey(), 9);
+                }
+                assertEquals(ids(forward), ids(backward));
+            }
+        }
+    }
+
+    private static List<String> ids(List<Crime> crimes) {
+        List<String> ids = new ArrayList<>(crimes.size());
+        for (Crime crime : crimes) {
+            ids.add(crime.getId().toString());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,102 @@
+package com.azavyalov.criminalintent;
+
+import java.util.Date;
+import java.util.Objects;
+import java.util.UUID;
+
+public class Crime {
+
+    private UUID mId;
+    private String mTitle;
+    private Date mDate;
+    private boolean mSolved;
+    private String mSuspect;
+    private boolean mHasPhoto;
+
+    public Crime() {
+        this(UUID.randomUUID());
+    }
+
+    public Crime(UUID id) {
+        mId = id;
+        mDate = new Date();
+    }
+
+    // Snapshot copy; the copy does not share the mutable Date
+    public Crime(Crime other) {
+        mId = other.mId;
+        mTitle = other.mTitle;
+        mDate = new Date(other.mDate.getTime());
+        mSolved = other.mSolved;
+        mSuspect = other.mSuspect;
+        mHasPhoto = other.mHasPhoto;
+    }
+
+    public UUID getId() {
+        return mId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public void setTitle(String mTitle) {
+        this.mTitle = mTitle;
+    }
+
+    public Date getDate() {
+        return mDate;
+    }
+
+    public void setDate(Date mDate) {
+        this.mDate = mDate;
+    }
+
+    public boolean isSolved() {
+        return mSolved;
+    }
+
+    public void setSolved(boolean mSolved) {
+        this.mSolved = mSolved;
+    }
+
+    public String getSuspect() {
+        return mSuspect;
+    }
+
+    public void setSuspect(String suspect) {
+        this.mSuspect = suspect;
+    }
+
+    /**
+     * Сравнивает содержимое, без учёта идентификатора. Два снимка одного
+     * преступления с равным содержимым отображаются одинаково.
+     */
+    public boolean contentEquals(Crime other) {
+        return mSolved == other.mSolved
+                && mHasPhoto == other.mHasPhoto
+                && Objects.equals(mTitle, other.mTitle)
+                && Objects.equals(mDate, other.mDate)
+                && Objects.equals(mSuspect, other.mSuspect);
+    }
+
+    public boolean hasPhoto() {
+        return mHasPhoto;
+    }
+
+    public void setHasPhoto(boolean hasPhoto) {
+        mHasPhoto = hasPhoto;
+    }
+
+    public String getPhotoFilename() {
+        return "IMG_" + getId().toString() + ".jpg";
+    }
+
+    public String getThumbnailFilename() {
+        return "IMG_" + getId().toString() + "_thumb.jpg";
+    }
+
+    public String getPreviewFilename() {
+        return "IMG_" + getId().toString() + "_preview.jpg";
+    }
+}
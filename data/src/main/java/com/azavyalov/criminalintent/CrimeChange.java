@@ -0,0 +1,75 @@
+package com.azavyalov.criminalintent;
+
+import java.util.UUID;
+
+/**
+ * Событие об изменении одной строки, публикуемое CrimeLab после записи.
+ */
+public class CrimeChange {
+
+    public enum Type {
+        INSERTED,
+        UPDATED,
+        DELETED
+    }
+
+    public static final int FIELD_TITLE = 1;
+    public static final int FIELD_DATE = 1 << 1;
+    public static final int FIELD_SOLVED = 1 << 2;
+    public static final int FIELD_SUSPECT = 1 << 3;
+    public static final int FIELD_PHOTO = 1 << 4;
+    public static final int ALL_FIELDS =
+            FIELD_TITLE | FIELD_DATE | FIELD_SOLVED | FIELD_SUSPECT | FIELD_PHOTO;
+
+    private final Type mType;
+    private final UUID mId;
+    private final Crime mCrime;
+    private final long mRowId;
+    private final int mChangedFields;
+
+    private CrimeChange(Type type, UUID id, Crime crime, long rowId, int changedFields) {
+        mType = type;
+        mId = id;
+        mCrime = crime;
+        mRowId = rowId;
+        mChangedFields = changedFields;
+    }
+
+    public static CrimeChange inserted(Crime crime, long rowId) {
+        return new CrimeChange(Type.INSERTED, crime.getId(), crime, rowId, ALL_FIELDS);
+    }
+
+    public static CrimeChange updated(Crime crime, int changedFields) {
+        return new CrimeChange(Type.UPDATED, crime.getId(), crime, -1, changedFields);
+    }
+
+    public static CrimeChange deleted(UUID id) {
+        return new CrimeChange(Type.DELETED, id, null, -1, 0);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public UUID getId() {
+        return mId;
+    }
+
+    // Live instance from the identity map; null for DELETED
+    public Crime getCrime() {
+        return mCrime;
+    }
+
+    // Database row id of an inserted crime, -1 for other changes
+    public long getRowId() {
+        return mRowId;
+    }
+
+    public int getChangedFields() {
+        return mChangedFields;
+    }
+
+    public boolean hasChanged(int field) {
+        return (mChangedFields & field) != 0;
+    }
+}
@@ -0,0 +1,207 @@
+package com.azavyalov.criminalintent;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Упорядоченный по дате список идентификаторов преступлений для пейджера.
+ * Хранит только биты UUID и дату в примитивных массивах, а позицию по
+ * идентификатору находит через хеш-таблицу с открытой адресацией по тем же
+ * битам, без объекта на элемент. Вставка и удаление сдвигают хвост массивов и
+ * за то же O(n - position) правят в таблице позиции сдвинутых элементов, ничего
+ * не выделяя, пока не понадобится расширить массивы.
+ * Не потокобезопасен: после загрузки используется только из главного потока.
+ */
+public class CrimeIdList {
+
+    private long[] mMostSigBits;
+    private long[] mLeastSigBits;
+    // Kept only to place inserted ids in the same order as CrimeLab.getCrimes()
+    private long[] mDates;
+    private int mSize;
+
+    // Linear probing, at most half full. A slot holds position + 1 of the id hashed
+    // there, or 0 if empty; the id itself is read from the arrays at that position.
+    private int[] mSlots;
+
+    public CrimeIdList(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mMostSigBits = new long[capacity];
+        mLeastSigBits = new long[capacity];
+        mDates = new long[capacity];
+        mSlots = new int[getSlotCount(capacity)];
+    }
+
+    /**
+     * Список из одного преступления, пока полный список загружается.
+     */
+    public static CrimeIdList singleton(UUID id) {
+        CrimeIdList ids = new CrimeIdList(1);
+        ids.add(id, 0);
+        return ids;
+    }
+
+    // Appends an id that sorts after all others; used while loading
+    public void add(UUID id, long date) {
+        ensureCapacity(mSize + 1);
+        set(mSize, id, date);
+        place(mSize);
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public UUID get(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + mSize);
+        }
+        return new UUID(mMostSigBits[position], mLeastSigBits[position]);
+    }
+
+    /**
+     * Позиция преступления или -1, если его нет в списке.
+     */
+    public int indexOf(UUID id) {
+        int slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return slot == -1 ? -1 : mSlots[slot] - 1;
+    }
+
+    /**
+     * Вставляет преступление после всех с той же или более ранней датой.
+     * Возвращает его позицию.
+     */
+    public int insert(UUID id, long date) {
+        int existing = indexOf(id);
+        if (existing != -1) {
+            return existing;
+        }
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mDates[middle] <= date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        ensureCapacity(mSize + 1);
+        int tail = mSize - low;
+        System.arraycopy(mMostSigBits, low, mMostSigBits, low + 1, tail);
+        System.arraycopy(mLeastSigBits, low, mLeastSigBits, low + 1, tail);
+        System.arraycopy(mDates, low, mDates, low + 1, tail);
+        set(low, id, date);
+        mSize++;
+        // From the end, so the old position being looked for is never one already written
+        for (int position = mSize - 1; position > low; position--) {
+            move(position - 1, position);
+        }
+        place(low);
+        return low;
+    }
+
+    /**
+     * Удаляет преступление и возвращает его прежнюю позицию или -1.
+     */
+    public int remove(UUID id) {
+        int slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (slot == -1) {
+            return -1;
+        }
+        int position = mSlots[slot] - 1;
+        // Before the shift: the slots that move back are rehashed from the arrays
+        clearSlot(slot);
+        int tail = mSize - position - 1;
+        System.arraycopy(mMostSigBits, position + 1, mMostSigBits, position, tail);
+        System.arraycopy(mLeastSigBits, position + 1, mLeastSigBits, position, tail);
+        System.arraycopy(mDates, position + 1, mDates, position, tail);
+        mSize--;
+        for (int i = position; i < mSize; i++) {
+            move(i + 1, i);
+        }
+        return position;
+    }
+
+    private int findSlot(long mostSigBits, long leastSigBits) {
+        int mask = mSlots.length - 1;
+        for (int slot = getHomeSlot(mostSigBits, leastSigBits); ; slot = (slot + 1) & mask) {
+            int entry = mSlots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (mMostSigBits[entry - 1] == mostSigBits && mLeastSigBits[entry - 1] == leastSigBits) {
+                return slot;
+            }
+        }
+    }
+
+    private void place(int position) {
+        int mask = mSlots.length - 1;
+        int slot = getHomeSlot(mMostSigBits[position], mLeastSigBits[position]);
+        while (mSlots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mSlots[slot] = position + 1;
+    }
+
+    // The id now at newPosition still has oldPosition in its slot; no other slot holds it
+    private void move(int oldPosition, int newPosition) {
+        int mask = mSlots.length - 1;
+        int slot = getHomeSlot(mMostSigBits[newPosition], mLeastSigBits[newPosition]);
+        while (mSlots[slot] != oldPosition + 1) {
+            slot = (slot + 1) & mask;
+        }
+        mSlots[slot] = newPosition + 1;
+    }
+
+    // Backward shift instead of tombstones, so lookups never scan deleted slots
+    private void clearSlot(int hole) {
+        int mask = mSlots.length - 1;
+        for (int slot = (hole + 1) & mask; mSlots[slot] != 0; slot = (slot + 1) & mask) {
+            int position = mSlots[slot] - 1;
+            int home = getHomeSlot(mMostSigBits[position], mLeastSigBits[position]);
+            // Can fill the hole unless its home lies between the hole and the slot
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                mSlots[hole] = mSlots[slot];
+                hole = slot;
+            }
+        }
+        mSlots[hole] = 0;
+    }
+
+    private int getHomeSlot(long mostSigBits, long leastSigBits) {
+        long bits = mostSigBits ^ leastSigBits;
+        int hash = (int) (bits ^ (bits >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (mSlots.length - 1);
+    }
+
+    private void set(int position, UUID id, long date) {
+        mMostSigBits[position] = id.getMostSignificantBits();
+        mLeastSigBits[position] = id.getLeastSignificantBits();
+        mDates[position] = date;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity * 2 > mSlots.length) {
+            // Rebuilt from the arrays, which still match the old slots at this point
+            mSlots = new int[getSlotCount(capacity + (capacity >> 1))];
+            for (int position = 0; position < mSize; position++) {
+                place(position);
+            }
+        }
+        if (capacity <= mMostSigBits.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mMostSigBits.length + (mMostSigBits.length >> 1));
+        mMostSigBits = Arrays.copyOf(mMostSigBits, newCapacity);
+        mLeastSigBits = Arrays.copyOf(mLeastSigBits, newCapacity);
+        mDates = Arrays.copyOf(mDates, newCapacity);
+    }
+
+    // Smallest power of two that keeps the table at most half full
+    private static int getSlotCount(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2;
+    }
+}
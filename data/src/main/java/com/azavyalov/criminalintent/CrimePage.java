@@ -0,0 +1,92 @@
+package com.azavyalov.criminalintent;
+
+import java.util.List;
+
+/**
+ * Страница списка преступлений, упорядоченная по (столбец сортировки, _id).
+ * Ключи первой и последней записи используются для keyset-пагинации.
+ */
+public class CrimePage {
+
+    private final List<Crime> mCrimes;
+    // Display models in the same order, set before the page is shown
+    private List<CrimeRow> mRows;
+    private final Key mFirstKey;
+    private Key mLastKey;
+
+    public CrimePage(List<Crime> crimes, Key firstKey, Key lastKey) {
+        mCrimes = crimes;
+        mFirstKey = firstKey;
+        mLastKey = lastKey;
+    }
+
+    public List<Crime> getCrimes() {
+        return mCrimes;
+    }
+
+    public List<CrimeRow> getRows() {
+        return mRows;
+    }
+
+    public void setRows(List<CrimeRow> rows) {
+        mRows = rows;
+    }
+
+    public int size() {
+        return mCrimes.size();
+    }
+
+    public boolean isEmpty() {
+        return mCrimes.isEmpty();
+    }
+
+    public Key getFirstKey() {
+        return mFirstKey;
+    }
+
+    public Key getLastKey() {
+        return mLastKey;
+    }
+
+    // Adds a row that sorts after every row of the page
+    public void append(Crime crime, CrimeRow row, Key key) {
+        mCrimes.add(crime);
+        mRows.add(row);
+        mLastKey = key;
+    }
+
+    public void set(int index, Crime crime, CrimeRow row) {
+        mCrimes.set(index, crime);
+        mRows.set(index, row);
+    }
+
+    public Crime remove(int index) {
+        mRows.remove(index);
+        return mCrimes.remove(index);
+    }
+
+    public static final class Key {
+
+        // Long for a date sort, String (possibly null) for a title sort
+        private final Object mValue;
+        private final long mRowId;
+
+        public Key(long date, long rowId) {
+            mValue = date;
+            mRowId = rowId;
+        }
+
+        public Key(String title, long rowId) {
+            mValue = title;
+            mRowId = rowId;
+        }
+
+        public Object getValue() {
+            return mValue;
+        }
+
+        public long getRowId() {
+            return mRowId;
+        }
+    }
+}
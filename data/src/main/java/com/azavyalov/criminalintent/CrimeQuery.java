@@ -0,0 +1,345 @@
+package com.azavyalov.criminalintent;
+
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable;
+import com.azavyalov.criminalintent.database.CrimeDbSchema.CrimeTable.Cols;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Фильтр и порядок списка преступлений. Неизменяемый, создаётся через Builder.
+ * Каждое сочетание фильтра и сортировки обслуживается индексом
+ * (см. CrimeTable.getCreateQueryIndexes).
+ */
+public final class CrimeQuery implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final CrimeQuery ALL = new Builder().build();
+
+    public enum Sort {
+        DATE, TITLE
+    }
+
+    // null means "any"
+    private final Boolean mSolved;
+    private final Boolean mHasSuspect;
+    private final Boolean mHasPhoto;
+    // Inclusive lower and exclusive upper bound in millis, null if open
+    private final Long mDateFrom;
+    private final Long mDateTo;
+    private final Sort mSort;
+    private final boolean mAscending;
+
+    private CrimeQuery(Builder builder) {
+        mSolved = builder.mSolved;
+        mHasSuspect = builder.mHasSuspect;
+        mHasPhoto = builder.mHasPhoto;
+        mDateFrom = builder.mDateFrom;
+        mDateTo = builder.mDateTo;
+        mSort = builder.mSort;
+        mAscending = builder.mAscending;
+    }
+
+    public Boolean getSolved() {
+        return mSolved;
+    }
+
+    public Boolean getHasSuspect() {
+        return mHasSuspect;
+    }
+
+    public Boolean getHasPhoto() {
+        return mHasPhoto;
+    }
+
+    public Long getDateFrom() {
+        return mDateFrom;
+    }
+
+    public Long getDateTo() {
+        return mDateTo;
+    }
+
+    public Sort getSort() {
+        return mSort;
+    }
+
+    public boolean isAscending() {
+        return mAscending;
+    }
+
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    /**
+     * Поля CrimeChange.FIELD_*, изменение которых может убрать строку из
+     * выборки или переставить её.
+     */
+    public int getAffectedFields() {
+        int fields = mSort == Sort.TITLE ? CrimeChange.FIELD_TITLE : CrimeChange.FIELD_DATE;
+        if (mSolved != null) {
+            fields |= CrimeChange.FIELD_SOLVED;
+        }
+        if (mHasSuspect != null) {
+            fields |= CrimeChange.FIELD_SUSPECT;
+        }
+        if (mHasPhoto != null) {
+            fields |= CrimeChange.FIELD_PHOTO;
+        }
+        if (mDateFrom != null || mDateTo != null) {
+            fields |= CrimeChange.FIELD_DATE;
+        }
+        return fields;
+    }
+
+    /**
+     * Проверка фильтра в памяти, та же, что и в getWhere().
+     */
+    public boolean matches(Crime crime) {
+        long date = crime.getDate().getTime();
+        return (mSolved == null || mSolved == crime.isSolved())
+                && (mHasSuspect == null || mHasSuspect == (crime.getSuspect() != null))
+                && (mHasPhoto == null || mHasPhoto == crime.hasPhoto())
+                && (mDateFrom == null || date >= mDateFrom)
+                && (mDateTo == null || date < mDateTo);
+    }
+
+    public CrimePage.Key getKey(Crime crime, long rowId) {
+        if (mSort == Sort.TITLE) {
+            return new CrimePage.Key(crime.getTitle(), rowId);
+        }
+        return new CrimePage.Key(crime.getDate().getTime(), rowId);
+    }
+
+    /**
+     * Сравнивает ключи в порядке этого запроса.
+     */
+    public int compare(CrimePage.Key a, CrimePage.Key b) {
+        int result;
+        if (mSort == Sort.TITLE) {
+            result = compareTitles((String) a.getValue(), (String) b.getValue());
+        } else {
+            result = compareLongs((Long) a.getValue(), (Long) b.getValue());
+        }
+        if (result == 0) {
+            result = compareLongs(a.getRowId(), b.getRowId());
+        }
+        return mAscending ? result : -result;
+    }
+
+    // SQLite order: NULL first, then NOCASE, which folds ASCII letters only
+    static int compareTitles(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            int ca = foldAscii(a.charAt(i));
+            int cb = foldAscii(b.charAt(i));
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    private static int foldAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    // SQL helpers below are for CrimeRepository implementations.
+    // Booleans are inlined so the planner sees constants; dates are bound
+    public String getWhere() {
+        List<String> clauses = new ArrayList<>();
+        if (mSolved != null) {
+            clauses.add(Cols.SOLVED + " = " + (mSolved ? 1 : 0));
+        }
+        if (mHasPhoto != null) {
+            clauses.add(Cols.HAS_PHOTO + " = " + (mHasPhoto ? 1 : 0));
+        }
+        if (mDateFrom != null) {
+            clauses.add(Cols.DATE + " >= ?");
+        }
+        if (mDateTo != null) {
+            clauses.add(Cols.DATE + " < ?");
+        }
+        if (mHasSuspect != null) {
+            clauses.add(Cols.SUSPECT + (mHasSuspect ? " IS NOT NULL" : " IS NULL"));
+        }
+        return clauses.isEmpty() ? null : join(clauses);
+    }
+
+    public String[] getWhereArgs() {
+        List<String> args = new ArrayList<>(2);
+        if (mDateFrom != null) {
+            args.add(String.valueOf(mDateFrom));
+        }
+        if (mDateTo != null) {
+            args.add(String.valueOf(mDateTo));
+        }
+        return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    public String getOrderBy(boolean reversed) {
+        String direction = mAscending != reversed ? " ASC" : " DESC";
+        return getSortColumn() + direction + ", " + Cols.ID + direction;
+    }
+
+    /**
+     * Условие "строка идёт после key" в порядке запроса (или перед ним, если
+     * reversed). (столбец, _id) уникален, поэтому страницы не пересекаются.
+     */
+    public String getKeyWhere(CrimePage.Key key, boolean reversed) {
+        boolean forward = mAscending != reversed;
+        String id = Cols.ID + (forward ? " > ?" : " < ?");
+        String op = forward ? " > ?" : " < ?";
+        // The outer bound lets the index seek to the key; on its own the OR makes
+        // SQLite walk the index from the start, so a page cost grew with its position
+        String bound = forward ? " >= ?" : " <= ?";
+        if (mSort == Sort.DATE) {
+            return "(" + Cols.DATE + bound + " AND (" + Cols.DATE + op + " OR " + id + "))";
+        }
+        // NULL titles sort first and can't be compared with < or >
+        String title = getSortColumn();
+        if (key.getValue() == null) {
+            return forward
+                    ? "((" + Cols.TITLE + " IS NULL AND " + id + ") OR " + Cols.TITLE + " IS NOT NULL)"
+                    : "(" + Cols.TITLE + " IS NULL AND " + id + ")";
+        }
+        String next = title + bound + " AND (" + title + op + " OR " + id + ")";
+        return forward ? "(" + next + ")" : "((" + next + ") OR " + Cols.TITLE + " IS NULL)";
+    }
+
+    public String[] getKeyArgs(CrimePage.Key key) {
+        String rowId = String.valueOf(key.getRowId());
+        if (key.getValue() == null) {
+            return new String[]{rowId};
+        }
+        String value = String.valueOf(key.getValue());
+        return new String[]{value, value, rowId};
+    }
+
+    private String getSortColumn() {
+        return mSort == Sort.TITLE ? Cols.TITLE + CrimeTable.TITLE_COLLATION : Cols.DATE;
+    }
+
+    private static String join(List<String> clauses) {
+        StringBuilder where = new StringBuilder();
+        for (String clause : clauses) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(clause);
+        }
+        return where.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CrimeQuery)) {
+            return false;
+        }
+        CrimeQuery other = (CrimeQuery) o;
+        return mAscending == other.mAscending
+                && mSort == other.mSort
+                && equal(mSolved, other.mSolved)
+                && equal(mHasSuspect, other.mHasSuspect)
+                && equal(mHasPhoto, other.mHasPhoto)
+                && equal(mDateFrom, other.mDateFrom)
+                && equal(mDateTo, other.mDateTo);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mSort.hashCode();
+        result = 31 * result + (mAscending ? 1 : 0);
+        result = 31 * result + hash(mSolved);
+        result = 31 * result + hash(mHasSuspect);
+        result = 31 * result + hash(mHasPhoto);
+        result = 31 * result + hash(mDateFrom);
+        result = 31 * result + hash(mDateTo);
+        return result;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int hash(Object o) {
+        return o == null ? 0 : o.hashCode();
+    }
+
+    public static final class Builder {
+
+        private Boolean mSolved;
+        private Boolean mHasSuspect;
+        private Boolean mHasPhoto;
+        private Long mDateFrom;
+        private Long mDateTo;
+        private Sort mSort = Sort.DATE;
+        private boolean mAscending = true;
+
+        public Builder() {
+        }
+
+        private Builder(CrimeQuery query) {
+            mSolved = query.mSolved;
+            mHasSuspect = query.mHasSuspect;
+            mHasPhoto = query.mHasPhoto;
+            mDateFrom = query.mDateFrom;
+            mDateTo = query.mDateTo;
+            mSort = query.mSort;
+            mAscending = query.mAscending;
+        }
+
+        public Builder setSolved(Boolean solved) {
+            mSolved = solved;
+            return this;
+        }
+
+        public Builder setHasSuspect(Boolean hasSuspect) {
+            mHasSuspect = hasSuspect;
+            return this;
+        }
+
+        public Builder setHasPhoto(Boolean hasPhoto) {
+            mHasPhoto = hasPhoto;
+            return this;
+        }
+
+        /**
+         * Диапазон дат [from, to) в миллисекундах, null - без границы.
+         */
+        public Builder setDateRange(Long from, Long to) {
+            mDateFrom = from;
+            mDateTo = to;
+            return this;
+        }
+
+        public Builder setSort(Sort sort, boolean ascending) {
+            if (sort == null) {
+                throw new IllegalArgumentException("sort == null");
+            }
+            mSort = sort;
+            mAscending = ascending;
+            return this;
+        }
+
+        public CrimeQuery build() {
+            if (mDateFrom != null && mDateTo != null && mDateFrom > mDateTo) {
+                throw new IllegalArgumentException("dateFrom > dateTo");
+            }
+            return new CrimeQuery(this);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.azavyalov.criminalintent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Хранилище преступлений без привязки к платформе. CrimeLab - реализация для
+ * Android, JdbcCrimeRepository из модуля benchmark - для JVM.
+ * Все методы синхронные: на Android их вызывают из потока БД.
+ */
+public interface CrimeRepository {
+
+    void addCrime(Crime crime);
+
+    /**
+     * Вставляет пакет в одной транзакции.
+     */
+    void addCrimes(Collection<Crime> crimes);
+
+    /**
+     * Преступление или null, если его нет.
+     */
+    Crime getCrime(UUID id);
+
+    /**
+     * Все преступления в порядке CrimeQuery.ALL.
+     */
+    List<Crime> getCrimes();
+
+    CrimeIdList getCrimeIds();
+
+    int getCrimeCount(CrimeQuery query);
+
+    /**
+     * Страница из не более limit строк, начиная с позиции position в порядке query.
+     */
+    CrimePage getCrimesPageAt(CrimeQuery query, int position, int limit);
+
+    /**
+     * Страница строк, идущих после key; null - с начала.
+     */
+    CrimePage getCrimesPageAfter(CrimeQuery query, CrimePage.Key key, int limit);
+
+    CrimePage getCrimesPageBefore(CrimeQuery query, CrimePage.Key key, int limit);
+
+    /**
+     * Полнотекстовый поиск по названию и подозреваемому.
+     */
+    List<Crime> search(String query, int offset, int limit);
+
+    /**
+     * changedFields - маска CrimeChange.FIELD_*.
+     */
+    void updateCrime(Crime crime, int changedFields);
+
+    void updateCrimes(Collection<Crime> crimes, int changedFields);
+
+    void deleteCrimes(Collection<UUID> ids);
+
+    CrimeStats getStats();
+
+    List<CrimeStats.Bucket> getCountsBy(CrimeStats.Period period);
+}
@@ -0,0 +1,57 @@
+package com.azavyalov.criminalintent;
+
+import java.io.File;
+
+/**
+ * Готовая к показу строка списка: всё форматирование сделано заранее, в
+ * фоне, поэтому привязка к view только раздаёт готовые значения.
+ * Неизменяемая; хранит снимок преступления, из которого построена.
+ */
+public final class CrimeRow {
+
+    private final Crime mCrime;
+    private final String mTitle;
+    private final String mDate;
+    private final boolean mSolved;
+    private final File mThumbnailFile;
+
+    /**
+     * thumbnailFile - null, если у преступления нет фотографии.
+     */
+    public CrimeRow(Crime crime, String date, File thumbnailFile) {
+        mCrime = crime;
+        mTitle = crime.getTitle();
+        mDate = date;
+        mSolved = crime.isSolved();
+        mThumbnailFile = thumbnailFile;
+    }
+
+    public Crime getCrime() {
+        return mCrime;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getDate() {
+        return mDate;
+    }
+
+    public boolean isSolved() {
+        return mSolved;
+    }
+
+    public File getThumbnailFile() {
+        return mThumbnailFile;
+    }
+
+    // Runs on every bind during a fling: no allocation or formatting here,
+    // whatever the view does with the values is up to the view
+    public void bindTo(CrimeRowView view) {
+        view.setTitle(mTitle);
+        view.setDate(mDate);
+        view.setSolved(mSolved);
+        view.setThumbnail(mThumbnailFile);
+    }
+}
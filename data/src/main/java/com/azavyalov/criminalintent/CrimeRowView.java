@@ -0,0 +1,18 @@
+package com.azavyalov.criminalintent;
+
+import java.io.File;
+
+/**
+ * То, во что CrimeRow выводит свои значения; реализуется ViewHolder-ом списка.
+ */
+public interface CrimeRowView {
+
+    void setTitle(String title);
+
+    void setDate(String date);
+
+    void setSolved(boolean solved);
+
+    // null when the crime has no photo
+    void setThumbnail(File thumbnailFile);
+}
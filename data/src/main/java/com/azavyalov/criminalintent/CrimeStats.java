@@ -0,0 +1,76 @@
+package com.azavyalov.criminalintent;
+
+/**
+ * Сводка по таблице преступлений, посчитанная агрегатными запросами.
+ */
+public class CrimeStats {
+
+    private final int mTotal;
+    private final int mSolved;
+
+    public CrimeStats(int total, int solved) {
+        mTotal = total;
+        mSolved = solved;
+    }
+
+    public int getTotal() {
+        return mTotal;
+    }
+
+    public int getSolved() {
+        return mSolved;
+    }
+
+    public int getUnsolved() {
+        return mTotal - mSolved;
+    }
+
+    public float getSolvedRatio() {
+        return mTotal == 0 ? 0f : (float) mSolved / mTotal;
+    }
+
+    public enum Period {
+        DAY("%Y-%m-%d"),
+        MONTH("%Y-%m");
+
+        private final String mFormat;
+
+        Period(String format) {
+            mFormat = format;
+        }
+
+        // strftime format of the bucket label
+        public String getFormat() {
+            return mFormat;
+        }
+    }
+
+    /**
+     * Количество преступлений за один день или месяц (по местному времени).
+     */
+    public static class Bucket {
+
+        private final String mLabel;
+        private final int mTotal;
+        private final int mSolved;
+
+        public Bucket(String label, int total, int solved) {
+            mLabel = label;
+            mTotal = total;
+            mSolved = solved;
+        }
+
+        // "2020-09-01" for a day, "2020-09" for a month
+        public String getLabel() {
+            return mLabel;
+        }
+
+        public int getTotal() {
+            return mTotal;
+        }
+
+        public int getSolved() {
+            return mSolved;
+        }
+    }
+}
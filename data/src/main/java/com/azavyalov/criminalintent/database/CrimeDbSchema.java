@@ -0,0 +1,233 @@
+package com.azavyalov.criminalintent.database;
+
+import com.azavyalov.criminalintent.CrimeStats;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Схема и SQL, общие для CrimeLab на Android и JDBC-реализации CrimeRepository.
+ */
+public class CrimeDbSchema {
+
+    public static final int VERSION = 5;
+
+    public static final class CrimeTable {
+        public static final String NAME = "crimes";
+
+        // Titles are sorted and compared case-insensitively (ASCII only, like SQLite NOCASE)
+        public static final String TITLE_COLLATION = " collate nocase";
+
+        public static final class Cols {
+            public static final String ID = "_id";
+            public static final String UUID_MSB = "uuid_msb";
+            public static final String UUID_LSB = "uuid_lsb";
+            public static final String TITLE = "title";
+            public static final String DATE = "date";
+            public static final String SOLVED = "solved";
+            public static final String SUSPECT = "suspect";
+            public static final String HAS_PHOTO = "has_photo";
+        }
+
+        public static final class Projections {
+            public static final String[] ALL = {
+                    Cols.ID, Cols.UUID_MSB, Cols.UUID_LSB, Cols.TITLE, Cols.DATE, Cols.SOLVED,
+                    Cols.SUSPECT, Cols.HAS_PHOTO
+            };
+            public static final String[] ID_ONLY = {Cols.UUID_MSB, Cols.UUID_LSB};
+            public static final String[] ID_AND_DATE = {Cols.UUID_MSB, Cols.UUID_LSB, Cols.DATE};
+            public static final String[] PAGE_KEY = {Cols.ID, Cols.DATE, Cols.TITLE};
+        }
+
+        public static final class Indexes {
+            public static final String UUID = "crimes_uuid_idx";
+            public static final String DATE = "crimes_date_idx";
+            // (solved, date) since version 5
+            public static final String SOLVED = "crimes_solved_idx";
+            public static final String TITLE = "crimes_title_idx";
+            public static final String PHOTO = "crimes_photo_idx";
+        }
+
+        public static final class Statements {
+            public static final String INSERT = "insert into " + NAME + "(" +
+                    Cols.UUID_MSB + ", " + Cols.UUID_LSB + ", " + Cols.TITLE + ", " + Cols.DATE +
+                    ", " + Cols.SOLVED + ", " + Cols.SUSPECT + ", " + Cols.HAS_PHOTO +
+                    ") values (?, ?, ?, ?, ?, ?, ?)";
+            // Fields are bound from 1, the id at 6 and 7
+            public static final String UPDATE = "update " + NAME + " set " +
+                    Cols.TITLE + " = ?, " + Cols.DATE + " = ?, " + Cols.SOLVED + " = ?, " +
+                    Cols.SUSPECT + " = ?, " + Cols.HAS_PHOTO + " = ? where " + UuidCodec.WHERE_ID;
+            public static final String DELETE = "delete from " + NAME + " where " +
+                    UuidCodec.WHERE_ID;
+            public static final String STATS = "select count(*), total(" + Cols.SOLVED +
+                    ") from " + NAME;
+
+            /**
+             * Количество и раскрытые по дням или месяцам: bucket, count, solved.
+             */
+            public static String countsBy(CrimeStats.Period period) {
+                String label = "strftime('" + period.getFormat() + "', " + Cols.DATE +
+                        " / 1000, 'unixepoch', 'localtime')";
+                return "select " + label + " as bucket, count(*), total(" + Cols.SOLVED +
+                        ") from " + NAME + " group by bucket order by bucket";
+            }
+        }
+
+        public static String getCreateTable(String tableName) {
+            return "create table " + tableName + "(" +
+                    " " + Cols.ID + " integer primary key autoincrement, " +
+                    Cols.UUID_MSB + " integer not null, " +
+                    Cols.UUID_LSB + " integer not null, " +
+                    Cols.TITLE + " text, " +
+                    Cols.DATE + " integer not null, " +
+                    Cols.SOLVED + " integer not null default 0, " +
+                    Cols.SUSPECT + " text, " +
+                    Cols.HAS_PHOTO + " integer not null default 0" +
+                    ")";
+        }
+
+        public static String[] getCreateIndexes() {
+            String[] queryIndexes = getCreateQueryIndexes();
+            String[] statements = new String[queryIndexes.length + 2];
+            statements[0] = "create unique index " + Indexes.UUID +
+                    " on " + NAME + "(" + Cols.UUID_MSB + ", " + Cols.UUID_LSB + ")";
+            // (date, rowid) also serves the keyset order used by paged loading
+            statements[1] = "create index " + Indexes.DATE + " on " + NAME + "(" + Cols.DATE + ")";
+            System.arraycopy(queryIndexes, 0, statements, 2, queryIndexes.length);
+            return statements;
+        }
+
+        // Each index ends with the sort column so a filtered page is read in order
+        public static String[] getCreateQueryIndexes() {
+            return new String[]{
+                    "create index " + Indexes.SOLVED +
+                            " on " + NAME + "(" + Cols.SOLVED + ", " + Cols.DATE + ")",
+                    "create index " + Indexes.TITLE +
+                            " on " + NAME + "(" + Cols.TITLE + TITLE_COLLATION + ")",
+                    "create index " + Indexes.PHOTO +
+                            " on " + NAME + "(" + Cols.HAS_PHOTO + ", " + Cols.DATE + ")"
+            };
+        }
+    }
+
+    /**
+     * Полнотекстовый индекс по названию и подозреваемому. Данные не дублируются:
+     * таблица читает их из crimes (content=), docid равен crimes._id,
+     * а синхронность поддерживают триггеры.
+     */
+    public static final class CrimeSearchTable {
+        public static final String NAME = "crimes_fts";
+
+        public static final class Triggers {
+            public static final String AFTER_INSERT = "crimes_fts_ai";
+            public static final String BEFORE_UPDATE = "crimes_fts_bu";
+            public static final String AFTER_UPDATE = "crimes_fts_au";
+            public static final String BEFORE_DELETE = "crimes_fts_bd";
+        }
+
+        public static final class Statements {
+            // Title matches first: offsets() lists hits column by column, title being column 0.
+            // Then newest first, like the rest of the app would show them.
+            // Binds the MATCH expression, limit and offset.
+            public static final String SEARCH = "select " + getQualifiedColumns("c") +
+                    " from " + CrimeTable.NAME + " c join (select docid, offsets(" + NAME +
+                    ") like '0 %' as title_hit from " + NAME + " where " + NAME +
+                    " match ?) f on c." + CrimeTable.Cols.ID + " = f.docid" +
+                    " order by f.title_hit desc, c." + CrimeTable.Cols.DATE + " desc, c." +
+                    CrimeTable.Cols.ID + " desc limit ? offset ?";
+        }
+
+        // FTS4 external content table: the text lives only in crimes, docid = crimes._id
+        public static String[] getCreateStatements() {
+            String[] triggers = getCreateTriggers();
+            String[] statements = new String[triggers.length + 1];
+            statements[0] = "create virtual table " + NAME + " using fts4(content=\"" +
+                    CrimeTable.NAME + "\", " + CrimeTable.Cols.TITLE + ", " +
+                    CrimeTable.Cols.SUSPECT + ")";
+            System.arraycopy(triggers, 0, statements, 1, triggers.length);
+            return statements;
+        }
+
+        public static String[] getCreateTriggers() {
+            String columns = CrimeTable.Cols.TITLE + ", " + CrimeTable.Cols.SUSPECT;
+            String insert = "insert into " + NAME + "(docid, " + columns + ") values(new." +
+                    CrimeTable.Cols.ID + ", new." + CrimeTable.Cols.TITLE + ", new." +
+                    CrimeTable.Cols.SUSPECT + "); end";
+            // FTS4 reads the old text from the content table, so it must go before the row changes
+            String delete = "delete from " + NAME + " where docid = old." + CrimeTable.Cols.ID +
+                    "; end";
+            return new String[]{
+                    "create trigger " + Triggers.AFTER_INSERT +
+                            " after insert on " + CrimeTable.NAME + " begin " + insert,
+                    "create trigger " + Triggers.BEFORE_UPDATE +
+                            " before update of " + columns + " on " + CrimeTable.NAME +
+                            " begin " + delete,
+                    "create trigger " + Triggers.AFTER_UPDATE +
+                            " after update of " + columns + " on " + CrimeTable.NAME +
+                            " begin " + insert,
+                    "create trigger " + Triggers.BEFORE_DELETE +
+                            " before delete on " + CrimeTable.NAME + " begin " + delete
+            };
+        }
+
+        // User input -> FTS MATCH expression: letters and digits only, lower case so that
+        // words like OR and NEAR are not read as operators
+        public static String toMatchQuery(String query) {
+            StringBuilder match = new StringBuilder();
+            int length = query == null ? 0 : query.length();
+            int start = -1;
+            for (int i = 0; i <= length; i++) {
+                boolean wordChar = i < length && Character.isLetterOrDigit(query.charAt(i));
+                if (wordChar && start < 0) {
+                    start = i;
+                } else if (!wordChar && start >= 0) {
+                    if (match.length() > 0) {
+                        match.append(' ');
+                    }
+                    match.append(query.substring(start, i).toLowerCase(Locale.ROOT)).append('*');
+                    start = -1;
+                }
+            }
+            return match.toString();
+        }
+
+        private static String getQualifiedColumns(String alias) {
+            StringBuilder columns = new StringBuilder();
+            for (String column : CrimeTable.Projections.ALL) {
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                }
+                columns.append(alias).append('.').append(column).append(" as ").append(column);
+            }
+            return columns.toString();
+        }
+    }
+
+    /**
+     * Идентификатор хранится в двух INTEGER-столбцах вместо 36-символьной строки.
+     */
+    public static final class UuidCodec {
+
+        public static final String WHERE_ID =
+                CrimeTable.Cols.UUID_MSB + " = ? and " + CrimeTable.Cols.UUID_LSB + " = ?";
+
+        public static long getMostSignificantBits(UUID id) {
+            return id.getMostSignificantBits();
+        }
+
+        public static long getLeastSignificantBits(UUID id) {
+            return id.getLeastSignificantBits();
+        }
+
+        public static UUID fromBits(long mostSignificantBits, long leastSignificantBits) {
+            return new UUID(mostSignificantBits, leastSignificantBits);
+        }
+
+        public static String[] getWhereArgs(UUID id) {
+            return new String[]{
+                    Long.toString(id.getMostSignificantBits()),
+                    Long.toString(id.getLeastSignificantBits())
+            };
+        }
+    }
+}
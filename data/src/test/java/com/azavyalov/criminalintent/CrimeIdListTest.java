@@ -0,0 +1,142 @@
+package com.azavyalov.criminalintent;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CrimeIdListTest {
+
+    private static final int ROWS = 100000;
+    private static final int MOVES = 200;
+
+    @Test
+    public void insertKeepsDateOrderAfterEqualDates() {
+        CrimeIdList ids = new CrimeIdList(2);
+        UUID first = UUID.randomUUID();
+        UUID last = UUID.randomUUID();
+        ids.add(first, 1000);
+        ids.add(last, 3000);
+
+        UUID sameDate = UUID.randomUUID();
+        assertEquals(1, ids.insert(sameDate, 1000));
+        UUID earliest = UUID.randomUUID();
+        assertEquals(0, ids.insert(earliest, 500));
+
+        assertEquals(earliest, ids.get(0));
+        assertEquals(first, ids.get(1));
+        assertEquals(sameDate, ids.get(2));
+        assertEquals(last, ids.get(3));
+    }
+
+    @Test
+    public void removeAndInsertMovesIdToItsNewDate() {
+        CrimeIdList ids = new CrimeIdList(3);
+        UUID first = UUID.randomUUID();
+        UUID moved = UUID.randomUUID();
+        UUID last = UUID.randomUUID();
+        ids.add(first, 1000);
+        ids.add(moved, 2000);
+        ids.add(last, 3000);
+
+        // What the pager does on a FIELD_DATE update
+        assertEquals(1, ids.remove(moved));
+        assertEquals(2, ids.insert(moved, 4000));
+        assertEquals(3, ids.size());
+        assertEquals(last, ids.get(1));
+        assertEquals(2, ids.indexOf(moved));
+
+        assertEquals(2, ids.remove(moved));
+        assertEquals(0, ids.insert(moved, 500));
+        assertEquals(moved, ids.get(0));
+        assertEquals(1, ids.indexOf(first));
+        assertEquals(2, ids.indexOf(last));
+    }
+
+    @Test
+    public void indexFollowsInsertsAndRemoves() {
+        Random random = new Random(7);
+        CrimeIdList ids = new CrimeIdList(0);
+        List<UUID> expected = new ArrayList<>();
+        List<Long> dates = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            if (!expected.isEmpty() && random.nextInt(3) == 0) {
+                int position = random.nextInt(expected.size());
+                assertEquals(position, ids.remove(expected.remove(position)));
+                dates.remove(position);
+            } else {
+                UUID id = UUID.randomUUID();
+                long date = random.nextInt(50);
+                int position = ids.insert(id, date);
+                expected.add(position, id);
+                dates.add(position, date);
+            }
+            // Spot check between changes so both indexed and stale positions are hit
+            if (!expected.isEmpty()) {
+                int position = random.nextInt(expected.size());
+                assertEquals(position, ids.indexOf(expected.get(position)));
+            }
+        }
+
+        assertEquals(expected.size(), ids.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), ids.get(i));
+            assertEquals(i, ids.indexOf(expected.get(i)));
+            if (i > 0) {
+                assertTrue(dates.get(i - 1) <= dates.get(i));
+            }
+        }
+        assertEquals(-1, ids.indexOf(UUID.randomUUID()));
+        assertEquals(-1, ids.remove(UUID.randomUUID()));
+    }
+
+    @Test
+    public void moveNearTopDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // Room for the moved id, so the arrays never grow
+        CrimeIdList ids = new CrimeIdList(ROWS + 1);
+        for (int i = 0; i < ROWS; i++) {
+            ids.add(UUID.randomUUID(), i * 10L);
+        }
+        UUID moved = ids.get(1);
+        UUID last = ids.get(ROWS - 1);
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up so the moves are compiled and the measurement calls are resolved
+        moveBackAndForth(ids, moved, last);
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        moveBackAndForth(ids, moved, last);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+        // Anything per shifted row would show up as megabytes over this many moves
+        assertTrue("allocated " + allocated + " bytes over " + MOVES + " moves", allocated < 1024);
+        assertEquals(1, ids.indexOf(moved));
+        assertEquals(ROWS - 1, ids.indexOf(last));
+    }
+
+    // What the pager does on a FIELD_DATE update, near the top so nearly every row shifts
+    private static void moveBackAndForth(CrimeIdList ids, UUID moved, UUID last) {
+        for (int i = 0; i < MOVES; i++) {
+            ids.remove(moved);
+            ids.insert(moved, i % 2 == 0 ? 0 : 10);
+            assertEquals(ROWS - 1, ids.indexOf(last));
+        }
+    }
+}
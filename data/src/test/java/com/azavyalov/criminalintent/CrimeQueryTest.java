@@ -0,0 +1,63 @@
+package com.azavyalov.criminalintent;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CrimeQueryTest {
+
+    @Test
+    public void titlesCompareLikeSqliteNocase() {
+        assertTrue(CrimeQuery.compareTitles(null, "a") < 0);
+        assertEquals(0, CrimeQuery.compareTitles(null, null));
+        assertEquals(0, CrimeQuery.compareTitles("Car", "cAR"));
+        assertTrue(CrimeQuery.compareTitles("car", "Cart") < 0);
+        // NOCASE folds ASCII only
+        assertTrue(CrimeQuery.compareTitles("Ärger", "zebra") > 0);
+    }
+
+    @Test
+    public void descendingOrderReversesKeys() {
+        CrimeQuery titleDesc = new CrimeQuery.Builder()
+                .setSort(CrimeQuery.Sort.TITLE, false)
+                .build();
+        CrimePage.Key nullTitle = new CrimePage.Key((String) null, 1);
+        CrimePage.Key apple = new CrimePage.Key("apple", 2);
+        CrimePage.Key appleLater = new CrimePage.Key("Apple", 3);
+        assertTrue(titleDesc.compare(apple, nullTitle) < 0);
+        assertTrue(titleDesc.compare(appleLater, apple) < 0);
+    }
+
+    @Test
+    public void matchesAppliesEveryFilter() {
+        Crime crime = new Crime();
+        crime.setDate(new Date(5000));
+        crime.setSolved(true);
+
+        CrimeQuery query = new CrimeQuery.Builder()
+                .setSolved(true)
+                .setDateRange(5000L, 6000L)
+                .build();
+        assertTrue(query.matches(crime));
+        assertFalse(query.buildUpon().setHasSuspect(true).build().matches(crime));
+        assertFalse(query.buildUpon().setDateRange(null, 5000L).build().matches(crime));
+
+        crime.setHasPhoto(true);
+        assertTrue(query.buildUpon().setHasPhoto(true).build().matches(crime));
+    }
+
+    @Test
+    public void affectedFieldsFollowFiltersAndSort() {
+        CrimeQuery query = new CrimeQuery.Builder()
+                .setSort(CrimeQuery.Sort.TITLE, true)
+                .setHasPhoto(true)
+                .build();
+        int fields = query.getAffectedFields();
+        assertEquals(CrimeChange.FIELD_TITLE | CrimeChange.FIELD_PHOTO, fields);
+        assertEquals(CrimeChange.FIELD_DATE, CrimeQuery.ALL.getAffectedFields());
+    }
+}
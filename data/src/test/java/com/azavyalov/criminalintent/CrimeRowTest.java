@@ -0,0 +1,104 @@
+package com.azavyalov.criminalintent;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CrimeRowTest {
+
+    private static final int BINDS = 100000;
+
+    @Test
+    public void bindCopiesPrecomputedValues() {
+        Crime crime = new Crime();
+        crime.setTitle("Stolen bike");
+        crime.setSolved(true);
+        File thumbnail = new File("thumb.jpg");
+        RecordingView view = new RecordingView();
+
+        new CrimeRow(crime, "Mon, Oct 18, 2026", thumbnail).bindTo(view);
+        assertEquals("Stolen bike", view.mTitle);
+        assertEquals("Mon, Oct 18, 2026", view.mDate);
+        assertTrue(view.mSolved);
+        assertEquals(thumbnail, view.mThumbnail);
+
+        new CrimeRow(new Crime(), "", null).bindTo(view);
+        assertNull(view.mThumbnail);
+    }
+
+    // Covers CrimeRow alone; CrimeHolderBindBenchmark measures the real views and photo loader
+    @Test
+    public void bindToDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        List<CrimeRow> rows = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Crime crime = new Crime();
+            crime.setTitle("Crime #" + i);
+            crime.setSolved(i % 2 == 0);
+            rows.add(new CrimeRow(crime, "date " + i, i % 3 == 0 ? null : new File("t" + i)));
+        }
+        RecordingView view = new RecordingView();
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up so the binds are compiled and the measurement calls are resolved
+        bindAll(rows, view);
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        bindAll(rows, view);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+        // Anything per bind would show up as megabytes over this many binds
+        assertTrue("allocated " + allocated + " bytes over " + BINDS + " binds", allocated < 1024);
+    }
+
+    private static void bindAll(List<CrimeRow> rows, CrimeRowView view) {
+        for (int i = 0; i < BINDS; i++) {
+            rows.get(i % rows.size()).bindTo(view);
+        }
+    }
+
+    private static class RecordingView implements CrimeRowView {
+
+        private String mTitle;
+        private String mDate;
+        private boolean mSolved;
+        private File mThumbnail;
+
+        @Override
+        public void setTitle(String title) {
+            mTitle = title;
+        }
+
+        @Override
+        public void setDate(String date) {
+            mDate = date;
+        }
+
+        @Override
+        public void setSolved(boolean solved) {
+            mSolved = solved;
+        }
+
+        @Override
+        public void setThumbnail(File thumbnailFile) {
+            mThumbnail = thumbnailFile;
+        }
+    }
+}